@@ -0,0 +1,121 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs tool layers over every leaf of a loaded data set ahead of time, so
+ * that matching can read each leaf's annotation (see
+ * TreeData.getAnnotations) rather than calling the tools itself. The
+ * lemma layer is matched by /lemma:word/ node descriptions.
+ *
+ * Each file is annotated by each layer as a separate job, run in parallel,
+ * and the results are kept in a side-car file beside the .stp file (see
+ * LeafAnnotations), so later loads only annotate new or changed files.
+ * Layers are called from several threads at once and must be safe to.
+ */
+public class AnnotationPipeline {
+
+    /**
+     * The layer whose annotations /lemma:word/ nodes match (see GroupPattern).
+     */
+    public static final String LEMMA_LAYER = "lemma";
+
+    private final Map<String, ToolLayer> layers = new LinkedHashMap<String, ToolLayer>();
+    private final int                    threads;
+
+    public AnnotationPipeline () {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public AnnotationPipeline (int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Adds a layer to run.
+     *
+     * @param name names the layer's annotations, e.g. lemma
+     * @param layer the tool layer
+     */
+    public void addLayer (String name, ToolLayer layer) {
+        layers.put(name, layer);
+    }
+
+    /**
+     * Annotates every file of a loaded data set with every layer.
+     */
+    public void annotate (final TreeData data) {
+        if (!data.isLoaded() || data.getFileCount() == 0 || layers.isEmpty())
+            return;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<String, List<Future<LeafAnnotations>>> results = new LinkedHashMap<String, List<Future<LeafAnnotations>>>();
+
+        for (final Map.Entry<String, ToolLayer> layer : layers.entrySet()) {
+            List<Future<LeafAnnotations>> files = new ArrayList<Future<LeafAnnotations>>();
+
+            for (int f = 0; f < data.getFileCount(); f++) {
+                final int file = f;
+
+                files.add(pool.submit(new Callable<LeafAnnotations>() {
+                    public LeafAnnotations call() {
+                        return LeafAnnotations.forFile(data.getFile(file), layer.getKey(), layer.getValue(), data.getFileTrees(file));
+                    }
+                }));
+            }
+
+            results.put(layer.getKey(), files);
+        }
+
+        pool.shutdown();
+
+        try {
+            for (Map.Entry<String, List<Future<LeafAnnotations>>> layer : results.entrySet()) {
+                LeafAnnotations[] fileAnnotations = new LeafAnnotations[layer.getValue().size()];
+
+                for (int f = 0; f < fileAnnotations.length; f++) {
+                    try {
+                        fileAnnotations[f] = layer.getValue().get(f).get();
+                    }
+                    catch (ExecutionException e) {
+                        // The file's leaves have no annotations
+                        System.out.println (data.getFile(f).getName() + ": " + e.getCause().toString());
+                    }
+                }
+
+                data.setAnnotations(layer.getKey(), fileAnnotations);
+            }
+        }
+        catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
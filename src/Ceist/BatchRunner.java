@@ -0,0 +1,254 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import QG.QGRule;
+import QG.QGSqa;
+
+import edu.stanford.nlp.trees.MemoryTreebank;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.Treebank;
+import edu.stanford.nlp.trees.tregex.TreeMatcher;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless question generation. Applies every rule in a rules file to
+ * every .stp file in a tree folder and writes the generated
+ * statement/question/answer records, one output file per input file.
+ *
+ * Files are processed in parallel, one file per worker thread, and each
+ * tree is passed through the whole rule set at once.
+ */
+public class BatchRunner {
+
+    private List<QGRule>     rules;
+    private RuleSetEvaluator evaluator;
+    private CompiledTemplate[] questionTemplates;
+    private CompiledTemplate[] answerTemplates;
+    private int              threads;
+
+    private AtomicInteger    treesDone     = new AtomicInteger();
+    private AtomicInteger    questionsDone = new AtomicInteger();
+    private long             startTime;
+
+    public BatchRunner (List<QGRule> rules, int threads) {
+        this.rules   = rules;
+        this.threads = threads;
+
+        evaluator         = new RuleSetEvaluator(rules);
+        questionTemplates = new CompiledTemplate[rules.size()];
+        answerTemplates   = new CompiledTemplate[rules.size()];
+
+        // Parse each template once for the whole run
+        for (int i = 0; i < rules.size(); i++) {
+            questionTemplates[i] = CompiledTemplate.forQuestion(rules.get(i).getQuestionTemplateExpression());
+            answerTemplates[i]   = CompiledTemplate.forAnswer(rules.get(i).getAnswerTemplateExpression());
+        }
+    }
+
+    /**
+     * Processes every .stp file in the tree folder, writing an .xml file of
+     * generated questions for each into the output folder.
+     *
+     * @param treeFolder the folder containing the .stp files
+     * @param outputFolder the folder to write the results to
+     */
+    public void run (String treeFolder, String outputFolder) {
+        File[] files = new File(treeFolder).listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.toLowerCase().endsWith(".stp");
+            }
+        });
+
+        if (files == null) {
+            System.err.println ("Cannot read tree folder " + treeFolder);
+            return;
+        }
+
+        Arrays.sort(files);
+        new File(outputFolder).mkdirs();
+
+        System.out.println (String.format("Applying %d rules (%d distinct patterns, %d anchors) to %d files using %d threads",
+                rules.size(), evaluator.getPatternCount(), evaluator.getAnchorCount(), files.length, threads));
+
+        startTime = System.currentTimeMillis();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+
+        for (final File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - 4);
+            final File outFile = new File(outputFolder, name + ".xml");
+
+            results.add(pool.submit(new Runnable() {
+                public void run() {
+                    processFile(file, outFile);
+                }
+            }));
+        }
+
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            }
+            catch (Exception e) {
+                System.err.println (e.toString());
+            }
+        }
+
+        pool.shutdown();
+
+        try {
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.println (String.format("Done. %d trees, %d questions in %.1fs (%.1f trees/sec)",
+                treesDone.get(), questionsDone.get(), elapsedSeconds(), treesPerSecond()));
+        System.out.println (PatternCache.getDefault().toString());
+        System.out.println (Lexicon.getDefault().toString());
+
+        Lexicon.closeDefault();
+    }
+
+    /**
+     * Applies every rule to each tree in a single .stp file.
+     */
+    private void processFile (File stpFile, File outFile) {
+        Treebank treebank = new MemoryTreebank(new TreeMatcher.TRegexTreeReaderFactory(), "UTF-8");
+
+        try {
+            treebank.loadPath(stpFile);
+        }
+        catch (Exception e) {
+            System.err.println (stpFile.getName() + ": " + e.toString());
+            return;
+        }
+
+        // Questions are kept with gaps for their inflected words until the
+        // whole file is done, so the lexicon is read once for the file
+        final InflectionBatch batch = new InflectionBatch();
+        final List<String> statements = new ArrayList<String>();
+        final List<InflectionBatch.Text> questions = new ArrayList<InflectionBatch.Text>();
+        final List<String> answers = new ArrayList<String>();
+        final StringBuilder text = new StringBuilder(256);
+
+        for (Tree tree : treebank) {
+            // Shared by every rule that matches the tree
+            final LeafIndex index = new LeafIndex(tree);
+            final String statement = getSentence(index);
+
+            evaluator.evaluate(tree, new RuleSetEvaluator.RuleMatchHandler() {
+                public void ruleMatched(int ruleIndex, TregexMatcher m, Tree matchedTree) {
+                    text.setLength(0);
+                    answerTemplates[ruleIndex].fill(m, index, null, text);
+
+                    statements.add(statement);
+                    questions.add(questionTemplates[ruleIndex].fillBatched(m, index, batch));
+                    answers.add(text.toString());
+                }
+            });
+        }
+
+        if (batch.size() > 0)
+            batch.resolve(Lexicon.getDefault());
+
+        List<QGSqa> sqas = new ArrayList<QGSqa>(questions.size());
+
+        for (int i = 0; i < questions.size(); i++)
+            sqas.add(new QGSqa(i + 1, statements.get(i), questions.get(i).toString().trim(), answers.get(i).trim()));
+
+        if (sqas.size() > 0)
+            QGSqa.toXML(outFile.getPath(), sqas);
+
+        int trees = treesDone.addAndGet(treebank.size());
+        questionsDone.addAndGet(sqas.size());
+
+        System.out.println (String.format("%s: %d trees, %d questions (%d trees, %.1f trees/sec)",
+                stpFile.getName(), treebank.size(), sqas.size(), trees, treesPerSecond()));
+    }
+
+    /**
+     * Gets the sentence text of a tree.
+     */
+    private static String getSentence (LeafIndex index) {
+        StringBuilder sentence = new StringBuilder();
+
+        for (int leaf = 0; leaf < index.getLeafCount(); leaf++) {
+            if (sentence.length() > 0)
+                sentence.append(' ');
+            sentence.append(index.getLeaf(leaf).nodeString());
+        }
+
+        return sentence.toString();
+    }
+
+    private double elapsedSeconds () {
+        return (System.currentTimeMillis() - startTime) / 1000.0;
+    }
+
+    private double treesPerSecond () {
+        double elapsed = elapsedSeconds();
+        return elapsed > 0 ? treesDone.get() / elapsed : 0;
+    }
+
+    /**
+     * Runs the batch from the command line.
+     *
+     * Usage: BatchRunner rulesFile treeFolder outputFolder [threads] [groupFolder]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println ("Usage: BatchRunner <rules file> <tree folder> <output folder> [threads] [group folder]");
+            System.exit(1);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args.length > 3)
+            threads = Integer.parseInt(args[3]);
+
+        // Word lists must be loaded before the rules are compiled
+        if (args.length > 4)
+            System.out.println (String.format("Loaded %d word lists", GroupPattern.loadWordLists(new File(args[4]))));
+
+        List<QGRule> rules = QGRule.fromXML(args[0]);
+
+        if (rules == null || rules.size() == 0) {
+            System.err.println ("No rules loaded from " + args[0]);
+            System.exit(1);
+        }
+
+        new BatchRunner(rules, threads).run(args[1], args[2]);
+    }
+}
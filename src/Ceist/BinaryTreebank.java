@@ -0,0 +1,277 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.ling.StringLabelFactory;
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.MemoryTreebank;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+import edu.stanford.nlp.trees.tregex.TreeMatcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The trees of one .stp file in a compact binary form, saved beside it as
+ * a .stb file.
+ *
+ * The file holds a table of the distinct labels, then every tree as a run
+ * of ints (label number and child count for each node, in preorder), then
+ * the offset of each tree's run. It is memory mapped rather than read, and
+ * a tree is only built when it is asked for, so opening a file costs
+ * little more than reading its label table.
+ *
+ * Each call to get builds a new tree, so changes made to a tree are not
+ * seen by later callers.
+ */
+public class BinaryTreebank extends AbstractList<Tree> implements RandomAccess {
+
+    private static final int MAGIC   = 0x43535442;  // "CSTB"
+    private static final int VERSION = 1;
+
+    private static final TreeFactory treeFactory = new LabeledScoredTreeFactory(new StringLabelFactory());
+
+    private final String[]  labels;
+    private final IntBuffer nodes;
+    private final IntBuffer offsets;
+
+    private BinaryTreebank (String[] labels, IntBuffer nodes, IntBuffer offsets) {
+        this.labels  = labels;
+        this.nodes   = nodes;
+        this.offsets = offsets;
+    }
+
+    @Override
+    public int size () {
+        return offsets.limit();
+    }
+
+    /**
+     * Builds a tree from the file. Safe to call from several threads.
+     */
+    @Override
+    public Tree get (int treeId) {
+        int[] position = { offsets.get(treeId) };
+        return decode(position);
+    }
+
+    private Tree decode (int[] position) {
+        String label   = labels[nodes.get(position[0]++)];
+        int childCount = nodes.get(position[0]++);
+
+        if (childCount == 0)
+            return treeFactory.newLeaf(label);
+
+        List<Tree> children = new ArrayList<Tree>(childCount);
+
+        for (int c = 0; c < childCount; c++)
+            children.add(decode(position));
+
+        return treeFactory.newTreeNode(label, children);
+    }
+
+    /**
+     * Gets the trees of a .stp file, from its .stb file if that is still
+     * up to date, otherwise by parsing the .stp file and saving the result.
+     *
+     * @param stpFile the bracketed tree file
+     * @return the trees, or null if the .stp file could not be read
+     */
+    public static BinaryTreebank forFile (File stpFile) {
+        File stbFile = SideCarFile.forSource(stpFile, ".stb");
+        BinaryTreebank trees = open(stbFile, stpFile);
+
+        if (trees != null)
+            return trees;
+
+        MemoryTreebank treebank = new MemoryTreebank(new TreeMatcher.TRegexTreeReaderFactory(), "UTF-8");
+
+        try {
+            treebank.loadPath(stpFile);
+        }
+        catch (Exception e) {
+            System.out.println (stpFile.getName() + ": " + e.toString());
+            return null;
+        }
+
+        byte[] data = encode(treebank, stpFile);
+
+        try {
+            // The old file may still be mapped by another load or a search
+            SideCarFile.write(stbFile, data);
+
+            trees = open(stbFile, stpFile);
+        }
+        catch (IOException e) {
+            // Could not save it, so use the encoded trees from the heap
+            System.out.println (stbFile.getName() + ": " + e.toString());
+        }
+
+        return trees != null ? trees : read(ByteBuffer.wrap(data), stpFile);
+    }
+
+    /**
+     * Maps a .stb file, checking it was made from the current version of
+     * the .stp file.
+     *
+     * @return the trees, or null if the file is missing or out of date
+     */
+    private static BinaryTreebank open (File stbFile, File stpFile) {
+        if (!stbFile.exists())
+            return null;
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(stbFile, "r");
+            FileChannel channel = file.getChannel();
+
+            // The mapping stays valid after the file is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), stpFile);
+        }
+        catch (IOException e) {
+            System.out.println (stbFile.getName() + ": " + e.toString());
+            return null;
+        }
+        finally {
+            try {
+                if (file != null)
+                    file.close();
+            }
+            catch (IOException e) {
+                System.out.println (e.toString());
+            }
+        }
+    }
+
+    private static BinaryTreebank read (ByteBuffer buffer, File stpFile) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+
+            if (!SideCarFile.readStamp(buffer, stpFile))
+                return null;
+
+            String[] labels = new String[buffer.getInt()];
+            int treeCount   = buffer.getInt();
+            int nodeInts    = buffer.getInt();
+
+            for (int l = 0; l < labels.length; l++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                labels[l] = new String(bytes, "UTF-8");
+            }
+
+            IntBuffer nodes = buffer.slice().asIntBuffer();
+            nodes.limit(nodeInts);
+
+            buffer.position(buffer.position() + nodeInts * 4);
+
+            IntBuffer offsets = buffer.slice().asIntBuffer();
+            offsets.limit(treeCount);
+
+            return new BinaryTreebank(labels, nodes, offsets);
+        }
+        catch (Exception e) {
+            // A truncated or damaged file is rebuilt from the .stp file
+            System.out.println (stpFile.getName() + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Writes trees in the .stb format.
+     */
+    private static byte[] encode (List<Tree> trees, File stpFile) {
+        Map<String, Integer> labelIds = new HashMap<String, Integer>();
+        List<String>         labels   = new ArrayList<String>();
+        IntList              nodes    = new IntList(trees.size() * 64);
+        IntList              offsets  = new IntList(trees.size());
+
+        for (Tree tree : trees) {
+            offsets.add(nodes.size());
+            encode(tree, nodes, labelIds, labels);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(nodes.size() * 4 + offsets.size() * 4 + 65536);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            SideCarFile.writeStamp(out, stpFile);
+            out.writeInt(labels.size());
+            out.writeInt(offsets.size());
+            out.writeInt(nodes.size());
+
+            for (String label : labels) {
+                byte[] utf8 = label.getBytes("UTF-8");
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+
+            for (int i = 0; i < nodes.size(); i++)
+                out.writeInt(nodes.get(i));
+
+            for (int i = 0; i < offsets.size(); i++)
+                out.writeInt(offsets.get(i));
+
+            out.flush();
+        }
+        catch (IOException e) {
+            // Not expected when writing to memory
+            System.out.println (e.toString());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static void encode (Tree node, IntList nodes, Map<String, Integer> labelIds, List<String> labels) {
+        String label = node.value() != null ? node.value() : "";
+        Integer labelId = labelIds.get(label);
+
+        if (labelId == null) {
+            labelId = labels.size();
+            labelIds.put(label, labelId);
+            labels.add(label);
+        }
+
+        Tree[] children = node.children();
+
+        nodes.add(labelId);
+        nodes.add(children.length);
+
+        for (Tree child : children)
+            encode(child, nodes, labelIds, labels);
+    }
+}
@@ -32,9 +32,25 @@ public class CeistApp extends SingleFrameApplication {
      */
     @Override protected void startup() {
         prefs = Preferences.userNodeForPackage(this.getClass());
+        Lexicon.setDefaultPath(prefs.get("LEXICON_PATH", Lexicon.DEFAULT_PATH));
+
+        // Word lists which can be used in patterns like the built in groups
+        String groupFolder = prefs.get("GROUP_FOLDER", "");
+
+        if (!groupFolder.equals(""))
+            GroupPattern.loadWordLists(new java.io.File(groupFolder));
+
         show(new CeistView(this));
     }
 
+    /**
+     * Closes the lexicon database before the application exits.
+     */
+    @Override protected void shutdown() {
+        Lexicon.closeDefault();
+        super.shutdown();
+    }
+
     /**
      * This method is to initialize the specified window by injecting resources.
      * Windows shown in our application come fully initialized from the GUI
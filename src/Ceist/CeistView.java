@@ -24,19 +24,19 @@ import QG.MatchPattern;
 import QG.QGRule;
 import QG.QuestionTemplate;
 
+import TregexGrouper.TregexGrouper;
+
 import edu.stanford.nlp.ling.StringLabelFactory;
 import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
 import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
-import edu.stanford.nlp.trees.MemoryTreebank;
 import edu.stanford.nlp.trees.PennTreeReader;
-import edu.stanford.nlp.trees.Treebank;
 import edu.stanford.nlp.trees.tregex.TregexMatcher;
-import edu.stanford.nlp.trees.tregex.TregexPattern;
 
 import org.jdesktop.application.Action;
 import org.jdesktop.application.ResourceMap;
 import org.jdesktop.application.SingleFrameApplication;
 import org.jdesktop.application.FrameView;
+import org.jdesktop.application.Task;
 import org.jdesktop.application.TaskMonitor;
 
 import java.awt.event.ActionEvent;
@@ -44,13 +44,17 @@ import java.awt.event.ActionListener;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.Timer;
 import javax.swing.JFrame;
 import javax.swing.DefaultListModel;
 import javax.swing.Icon;
 import javax.swing.JDialog;
-import javax.swing.SwingUtilities;
 import javax.swing.table.DefaultTableModel;
 
 import edu.stanford.nlp.trees.Tree;
@@ -61,11 +65,10 @@ import java.io.StringReader;
 public class CeistView extends FrameView {
 
     private CeistApp mainApp;
-        
-    List<Tree> matchedTrees = new ArrayList<Tree>();
-    List<Tree> diffTrees = new ArrayList<Tree>();
 
     private DataSetManager dataSet;
+    private SearchEngine searchEngine;
+    private MatchTableModel matchTableModel;
     
     private String treeFolder;
     private String testFiles;
@@ -75,9 +78,14 @@ public class CeistView extends FrameView {
         super(app);
 
         dataSet = new DataSetManager();
+        searchEngine = new SearchEngine(Runtime.getRuntime().availableProcessors());
         mainApp = CeistApp.getApplication();
 
         initComponents();
+
+        // The match rows are only built when they are shown
+        matchTableModel = new MatchTableModel(dataSet);
+        tableMatches.setModel(matchTableModel);
     
         getRootPane().setDefaultButton(this.btnFindMatches);
         
@@ -142,17 +150,36 @@ public class CeistView extends FrameView {
             }
         });
 
+        // The window is usable at once; the trees load in the background
         loadData();
    }
 
     @Action
     public void loadData (){
+        // Settings changed while loading take effect when it finishes
+        if (isLoading()) {
+            reloadPending = true;
+            return;
+        }
+
         treeFolder   = mainApp.prefs.get ("TREE_FOLDER", "");
         testFiles    = mainApp.prefs.get ("TEST_SET", "");
         devFiles     = mainApp.prefs.get ("DEVELOPMENT_SET", "");
 
-        loadDevData();
-        loadTestData();
+        // Large data sets can be read from disk as they are searched
+        boolean streaming = mainApp.prefs.getBoolean ("STREAM_TREES", false);
+        dataSet.devData.setStreaming(streaming);
+        dataSet.testData.setStreaming(streaming);
+
+        // Leaves can be given their lemmas as they load, for matching on
+        annotationPipeline = null;
+
+        if (mainApp.prefs.getBoolean ("ANNOTATE_LEMMAS", false)) {
+            annotationPipeline = new AnnotationPipeline();
+            annotationPipeline.addLayer(AnnotationPipeline.LEMMA_LAYER, new MorphAdornerLayer());
+        }
+
+        startLoading(true, true);
     }
 
     @Action
@@ -267,6 +294,7 @@ public class CeistView extends FrameView {
         };
         ;
         chkShowPreview = new javax.swing.JCheckBox();
+        chkSearchWithin = new javax.swing.JCheckBox();
         panelRules = new javax.swing.JPanel();
         jScrollPane3 = new javax.swing.JScrollPane();
         lstRules = new javax.swing.JList();
@@ -402,6 +430,10 @@ public class CeistView extends FrameView {
         chkShowPreview.setName("chkShowPreview"); // NOI18N
         chkShowPreview.setOpaque(false);
 
+        chkSearchWithin.setText(resourceMap.getString("chkSearchWithin.text")); // NOI18N
+        chkSearchWithin.setName("chkSearchWithin"); // NOI18N
+        chkSearchWithin.setOpaque(false);
+
         org.jdesktop.layout.GroupLayout panelSearchLayout = new org.jdesktop.layout.GroupLayout(panelSearch);
         panelSearch.setLayout(panelSearchLayout);
         panelSearchLayout.setHorizontalGroup(
@@ -423,7 +455,9 @@ public class CeistView extends FrameView {
                         .add(68, 68, 68)
                         .add(chkShowTagged)
                         .add(10, 10, 10)
-                        .add(chkShowPreview)))
+                        .add(chkShowPreview)
+                        .add(10, 10, 10)
+                        .add(chkSearchWithin)))
                 .add(354, 354, 354))
             .add(panelSearchLayout.createSequentialGroup()
                 .add(16, 16, 16)
@@ -449,7 +483,8 @@ public class CeistView extends FrameView {
                         .add(lblDevelopmentStatus))
                     .add(panelSearchLayout.createParallelGroup(org.jdesktop.layout.GroupLayout.BASELINE)
                         .add(chkShowTagged)
-                        .add(chkShowPreview)))
+                        .add(chkShowPreview)
+                        .add(chkSearchWithin)))
                 .addPreferredGap(org.jdesktop.layout.LayoutStyle.UNRELATED)
                 .add(jScrollPane1, org.jdesktop.layout.GroupLayout.DEFAULT_SIZE, 302, Short.MAX_VALUE)
                 .addContainerGap())
@@ -1043,34 +1078,161 @@ public class CeistView extends FrameView {
         if (treeViewBox == null)
             showTreeView();
 
-        // Matchedtrees is populated at search time with all the
-        // trees, in the order that they are added to the table
-        treeViewBox.mainPanel.setTree(matchedTrees.get(selectedRow));
+        // The table keeps where each match came from, so read the tree again
+        treeViewBox.mainPanel.setTree(matchTableModel.getTree(selectedRow));
         treeViewBox.setVisible(true);
     }//GEN-LAST:event_tableMatchesMouseClicked
 
     private void btnFindMatchesActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnFindMatchesActionPerformed
 
-        if (this.btnUseDevelopmentData.isSelected() && !dataSet.devData.isLoaded())
-            loadDevData();
+        // The Find button stops a search that is running
+        if (isSearching()) {
+            searchTask.cancel(true);
+            return;
+        }
+
+        boolean loadDev  = btnUseDevelopmentData.isSelected() && !dataSet.devData.isLoaded();
+        boolean loadTest = btnUseTestData.isSelected() && !dataSet.testData.isLoaded();
 
-        if (this.btnUseTestData.isSelected() && !dataSet.testData.isLoaded())
-            loadTestData();
+        // Load whatever is missing first; the search runs when it is done
+        if (!isLoading() && (loadDev || loadTest))
+            startLoading(loadDev, loadTest);
 
+        findMatches();
+    }//GEN-LAST:event_btnFindMatchesActionPerformed
+
+    private void findMatches (){
         if (!btnUseDevelopmentData.isSelected() && !btnUseTestData.isSelected())
             lblSearchStatus.setText(String.format ("No data selected.") );
         else
             runSearch();
-    }//GEN-LAST:event_btnFindMatchesActionPerformed
+    }
+
+    /**
+     * Starts loading data sets in the background.
+     */
+    private void startLoading (boolean loadDev, boolean loadTest){
+        // The load waits for a cancelled search to let go of the trees
+        SearchTask lastSearch = searchTask;
+        clearMatches();
 
-    private void loadDevData (){
-        dataSet.devData.loadFromFiles(treeFolder, devFiles);
-        this.lblDevelopmentStatus.setText(dataSet.devData.Count() + " trees loaded OK.");
+        loadTask = new LoadDataTask(loadDev, loadTest, lastSearch);
+        getApplication().getContext().getTaskService().execute(loadTask);
     }
-    
-    private void loadTestData (){
-        dataSet.testData.loadFromFiles(treeFolder, testFiles);
-        this.lblTestStatus.setText(dataSet.testData.Count() + " trees loaded OK.");
+
+    private boolean isLoading() {
+        return loadTask != null;
+    }
+
+    /**
+     * Loads the development and test data sets off the event thread, both
+     * at once. A search asked for while they load is run once they are
+     * done.
+     */
+    private class LoadDataTask extends Task<Void, Void> {
+        private final boolean loadDev;
+        private final boolean loadTest;
+        private final String  folder;
+        private final String  devSet;
+        private final String  testSet;
+        private final AnnotationPipeline pipeline;
+        private final SearchTask lastSearch;
+
+        LoadDataTask(boolean loadDev, boolean loadTest, SearchTask lastSearch) {
+            super(CeistView.this.getApplication());
+
+            this.loadDev  = loadDev;
+            this.loadTest = loadTest;
+            this.folder   = treeFolder;
+            this.devSet   = devFiles;
+            this.testSet  = testFiles;
+            this.pipeline = annotationPipeline;
+            this.lastSearch = lastSearch;
+
+            if (loadDev)
+                lblDevelopmentStatus.setText("Loading...");
+
+            if (loadTest)
+                lblTestStatus.setText("Loading...");
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            // Loading replaces the trees a search may still be reading
+            if (lastSearch != null)
+                lastSearch.awaitStopped();
+
+            setMessage("Loading trees...");
+
+            ExecutorService pool = Executors.newFixedThreadPool(2);
+            List<Future<?>> loads = new ArrayList<Future<?>>();
+
+            if (loadDev) {
+                loads.add(pool.submit(new Runnable() {
+                    public void run() {
+                        dataSet.devData.loadFromFiles(folder, devSet);
+                    }
+                }));
+            }
+
+            if (loadTest) {
+                loads.add(pool.submit(new Runnable() {
+                    public void run() {
+                        dataSet.testData.loadFromFiles(folder, testSet);
+                    }
+                }));
+            }
+
+            pool.shutdown();
+
+            for (int i = 0; i < loads.size(); i++) {
+                loads.get(i).get();
+                setProgress(i + 1, 0, loads.size());
+            }
+
+            if (pipeline != null) {
+                setMessage("Annotating trees...");
+
+                if (loadDev)
+                    pipeline.annotate(dataSet.devData);
+
+                if (loadTest)
+                    pipeline.annotate(dataSet.testData);
+            }
+
+            return null;
+        }
+
+        @Override
+        protected void succeeded(Void result) {
+            setMessage("Trees loaded.");
+        }
+
+        @Override
+        protected void failed(Throwable cause) {
+            System.out.println (cause.toString());
+        }
+
+        @Override
+        protected void finished() {
+            loadTask = null;
+
+            if (loadDev)
+                lblDevelopmentStatus.setText(dataSet.devData.Count() + " trees loaded OK.");
+
+            if (loadTest)
+                lblTestStatus.setText(dataSet.testData.Count() + " trees loaded OK.");
+
+            if (reloadPending) {
+                reloadPending = false;
+                searchPending = false;
+                loadData();
+            }
+            else if (searchPending) {
+                searchPending = false;
+                findMatches();
+            }
+        }
     }
 
     /**
@@ -1331,85 +1493,294 @@ public class CeistView extends FrameView {
     }
 
     /**
-     * Begin a search
+     * Begin a search. Any search already running is cancelled first.
      */
     private void runSearch() {
-    //setTregexState(true); Disable buttons while searching
-   
-        Thread searchThread = new Thread()
+
+        if (isSearching())
+            searchTask.cancel(true);
+
+        // Search once the trees have loaded
+        if (isLoading()) {
+            searchPending = true;
+            lblSearchStatus.setText("Waiting for the trees to load...");
+            return;
+        }
+
+        // Initialise search patterns
+        final GroupPattern primary = getCurrentPattern();
+
+        if (primary == null) {
+            lblSearchStatus.setText("Bad Pattern!");
+            return;
+        }
+
+        String scope = getSearchScope();
+        TreeRefList treebank;
+
+        // A tighter version of the last pattern, or a search within its
+        // results, only needs the trees the last search matched
+        if (lastHitTrees != null && scope.equals(lastSearchScope)
+                && (chkSearchWithin.isSelected() || PatternLabels.isRefinement(lastSearchPattern, txtCurrentPattern.getText())))
         {
-            @Override
-            public void run()
-            {
-                lblSearchStatus.setText("Searching...");
-            
-                // Initialise search patterns
-                final TregexPattern primary =  MatchPattern.getMatchPattern (txtCurrentPattern);
+            treebank = lastHitTrees;
+        }
+        else
+        {
+            // Only trees with a node for every description the pattern needs can match
+            treebank = dataSet.getTrees(primary.getRequiredDescriptions(), getSelectedDataSets());
+        }
+
+        // Clear the table
+        if (!chkShowPreview.isSelected())
+            matchTableModel.clear();
+
+        if (treebank == lastHitTrees)
+            lblSearchStatus.setText(String.format ("Searching within %d earlier results...", treebank.size()) );
+        else
+            lblSearchStatus.setText("Searching...");
+        btnFindMatches.setText(getResourceMap().getString("btnFindMatches.stopText"));
 
-                if (primary == null) {
-                    lblSearchStatus.setText("Bad Pattern!");
-                    return;
+        searchTask = new SearchTask(treebank, primary, mainApp.prefs.getInt("SEARCH_TIME_LIMIT", 0));
+        getApplication().getContext().getTaskService().execute(searchTask);
+    }
+
+    /**
+     * Clears the matches and forgets the last search's results, for when
+     * the trees they refer to are reloaded.
+     */
+    private void clearMatches() {
+        if (isSearching())
+            searchTask.cancel(true);
+
+        matchTableModel.clear();
+        lastHitTrees = null;
+    }
+
+    /**
+     * Gets the numbers of the data sets ticked for searching.
+     */
+    private int[] getSelectedDataSets() {
+        IntList sets = new IntList(2);
+
+        if (btnUseTestData.isSelected())
+            sets.add(DataSetManager.TEST_DATA);
+
+        if (btnUseDevelopmentData.isSelected())
+            sets.add(DataSetManager.DEVELOPMENT_DATA);
+
+        return sets.toArray();
+    }
+
+    /**
+     * Describes which data sets a search covers, so the last search's
+     * results are only reused for the same data.
+     */
+    private String getSearchScope() {
+        return (dataSet.testData.isLoaded() && btnUseTestData.isSelected() ? "test" : "")
+             + (dataSet.devData.isLoaded() && btnUseDevelopmentData.isSelected() ? "dev" : "");
+    }
+
+    /**
+     * Compiles the pattern in the scratchpad, or gets it from the pattern
+     * cache if it has been used before, showing the pattern with its groups
+     * expanded as a tool tip.
+     *
+     * @return the pattern, or null if it does not compile
+     */
+    private GroupPattern getCurrentPattern() {
+        String expression = txtCurrentPattern.getText();
+
+        if (!expression.equals(tooltipPattern)) {
+            txtCurrentPattern.setToolTipText(TregexGrouper.replaceGroup(expression));
+            tooltipPattern = expression;
+        }
+
+        try {
+            return PatternCache.getDefault().compile(expression);
+        }
+        catch (Exception e) {
+            System.err.println ("Bad pattern: '" + expression + "'");
+            return null;
+        }
+    }
+
+    private boolean isSearching() {
+        return searchTask != null && !searchTask.isDone();
+    }
+
+    /**
+     * Runs a search off the event thread. Matches are added to the table
+     * a chunk at a time as they are found, and the search can be stopped
+     * with the Find button or by running out of time.
+     */
+    private class SearchTask extends Task<Integer, SearchEngine.Match> {
+        private final TreeRefList trees;
+        private final GroupPattern pattern;
+        private final MatchTableModel.RowRenderer renderer;
+        private final long timeLimit;
+        private final String patternText;
+        private final String scope;
+        private final MatchList hits = new MatchList();
+        private boolean timedOut = false;
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        SearchTask(TreeRefList trees, GroupPattern pattern, int timeLimitSeconds) {
+            super(CeistView.this.getApplication());
+
+            this.trees     = trees;
+            this.pattern   = pattern;
+            this.timeLimit = timeLimitSeconds * 1000L;
+
+            this.patternText = txtCurrentPattern.getText();
+            this.scope       = getSearchScope();
+
+            // The rows are built when shown, with the settings of this search
+            final String questionTemplate = txtQuestionTemplate.getText();
+            final String answerTemplate   = txtAnswerTemplate.getText();
+            final boolean showTagged      = chkShowTagged.isSelected();
+
+            renderer = new MatchTableModel.RowRenderer() {
+                public String[] render(Tree tree, TreeData data, int treeId) {
+                    TregexMatcher m = SearchTask.this.pattern.matcher(tree);
+                    String[] lemmas = SearchTask.this.pattern.usesLemmas() ? data.getAnnotations(AnnotationPipeline.LEMMA_LAYER, treeId) : null;
+
+                    if (!SearchTask.this.pattern.find(m, tree, lemmas))
+                        return new String[] {"", "", ""};
+
+                    return getMatcherTableRow(m, tree, questionTemplate, answerTemplate, showTagged);
                 }
-            
-                SwingUtilities.invokeLater(new Runnable() {
-                    public void run() {
+            };
 
-                        Treebank treebank = new MemoryTreebank();
-
-                        // Add the test data set if selected and loaded
-                        if ( dataSet.testData.isLoaded() && btnUseTestData.isSelected())
-                            treebank.addAll(dataSet.testData.getTreebank());
-              
-                        // Add the development data set if selected and loaded
-                        if ( dataSet.testData.isLoaded() && btnUseDevelopmentData.isSelected())
-                            treebank.addAll(dataSet.devData.getTreebank());
-                    
-                        int treeCount = treebank.size();
-                        int count = 0;
-
-                        // Copy the current matches
-                        diffTrees.clear();
-                        diffTrees.addAll(matchedTrees);
-
-                        if (!chkShowPreview.isSelected())
-                        {
-                            matchedTrees.clear();
-
-                            // Clear the table
-                            ((DefaultTableModel)tableMatches.getModel()).setRowCount(0);
-                        }
-              
-                        for ( Tree testTree : treebank ) {
-                            count++;
-                            lblSearchStatus.setText(String.format ("Searching %d of %d", count, treeCount) );
-                            TregexMatcher m = primary.matcher(testTree);
-                        
-                            //Tree lastMatchingRootNode = null;
-                            boolean bMatchFound = false;
-      
-                            while (m.find() && !bMatchFound) {
-                            
-                                matchedTrees.add (testTree);
-                            
-                                if (chkShowTagged.isSelected())
-                                    ((DefaultTableModel)tableMatches.getModel()).addRow(getMatcherTableRow(m, testTree, true));
-                                else
-                                    ((DefaultTableModel)tableMatches.getModel()).addRow(getMatcherTableRow(m, testTree, false));
-                                bMatchFound = true;
-                            }
-                        }
-
-                        if (matchedTrees.size() > 0 )
-                            lblSearchStatus.setText(String.format ("Found %d matches.", matchedTrees.size()) );
-                        else
-                            lblSearchStatus.setText(String.format ("No matches found!") );
+            setUserCanCancel(true);
+        }
+
+        @Override
+        protected Integer doInBackground() {
+            // Cancelled before it began (see awaitStopped)
+            if (!started.compareAndSet(false, true))
+                return 0;
+
+            try {
+                return search();
+            }
+            finally {
+                stopped.countDown();
+            }
+        }
+
+        /**
+         * Waits until this search is no longer reading the trees. Unlike
+         * finished, which comes as soon as the task is cancelled, this
+         * waits for the search threads themselves to stop.
+         */
+        void awaitStopped() throws InterruptedException {
+            // A search that has not begun now never will
+            if (started.compareAndSet(false, true))
+                return;
+
+            stopped.await();
+        }
+
+        private Integer search() {
+            final long startTime = System.currentTimeMillis();
+            final int[] matchCount = new int[1];
+
+            searchEngine.search(trees, pattern, new SearchEngine.SearchListener() {
+                public boolean chunkSearched(List<SearchEngine.Match> matches, int treesSearched, int treeCount) {
+                    if (isCancelled())
+                        return false;
+
+                    matchCount[0] += matches.size();
+
+                    if (matches.size() > 0)
+                        publish(matches.toArray(new SearchEngine.Match[matches.size()]));
+
+                    setProgress(treesSearched, 0, treeCount);
+                    setMessage(String.format("Searching %d of %d", treesSearched, treeCount));
+
+                    if (timeLimit > 0 && System.currentTimeMillis() - startTime > timeLimit) {
+                        timedOut = true;
+                        return false;
                     }
-                });
+
+                    return true;
+                }
+            });
+
+            return matchCount[0];
+        }
+
+        @Override
+        protected void process(List<SearchEngine.Match> matches) {
+            // A cancelled search may still have chunks on the way
+            if (searchTask != this || isCancelled())
+                return;
+
+            // Keep just where each match is, not the trees
+            MatchList rows = new MatchList(matches.size());
+
+            for (SearchEngine.Match match : matches)
+                rows.add(trees.getDataSet(match.treeIndex), trees.getTreeId(match.treeIndex), match.matchNode);
+
+            hits.addAll(rows);
+            matchTableModel.addRows(rows, renderer);
+
+            lblSearchStatus.setText(String.format ("Found %d matches...", matchTableModel.getRowCount()) );
+        }
+
+        @Override
+        protected void succeeded(Integer matchCount) {
+            // Only a complete result can be searched within
+            if (searchTask == this && !timedOut) {
+                lastHitTrees      = getHitTrees();
+                lastSearchPattern = patternText;
+                lastSearchScope   = scope;
             }
-        };
-        
-        searchThread.start();
- }
+
+            if (timedOut)
+                lblSearchStatus.setText(String.format ("Time limit reached: found %d matches.", matchTableModel.getRowCount()) );
+            else if (matchTableModel.getRowCount() > 0 )
+                lblSearchStatus.setText(String.format ("Found %d matches.", matchTableModel.getRowCount()) );
+            else
+                lblSearchStatus.setText(String.format ("No matches found!") );
+        }
+
+        /**
+         * Gets the trees this search matched, each once and in order.
+         */
+        private TreeRefList getHitTrees() {
+            TreeRefList hitTrees = new TreeRefList();
+            int[] dataSets = {DataSetManager.TEST_DATA, DataSetManager.DEVELOPMENT_DATA};
+
+            for (int set : dataSets) {
+                IntList ids = new IntList();
+
+                // Only the first match in a tree is kept, so no tree is repeated
+                for (int i = 0; i < hits.size(); i++) {
+                    if (hits.getDataSet(i) == set)
+                        ids.add(hits.getTreeId(i));
+                }
+
+                hitTrees.addPart(set, dataSet.getData(set), ids.toArray());
+            }
+
+            return hitTrees;
+        }
+
+        @Override
+        protected void cancelled() {
+            if (searchTask == this)
+                lblSearchStatus.setText(String.format ("Search stopped: found %d matches.", matchTableModel.getRowCount()) );
+        }
+
+        @Override
+        protected void finished() {
+            if (searchTask == this)
+                btnFindMatches.setText(getResourceMap().getString("btnFindMatches.text"));
+        }
+    }
 
     /**
      * Displays the match results in a table with the matched parts
@@ -1417,27 +1788,30 @@ public class CeistView extends FrameView {
      *
      * @param m the matcher containing the match results
      * @param matchedTree the tree which was matched
+     * @param questionTemplate the question template to fill
+     * @param answerTemplate the answer template to fill
      * @param showTagged whether to show POS tags or not
      * @return the HTML to be displayed in the table row
      */
-    private String [] getMatcherTableRow (TregexMatcher m, Tree matchedTree, boolean showTagged ) {
+    private String [] getMatcherTableRow (TregexMatcher m, Tree matchedTree, String questionTemplate, String answerTemplate, boolean showTagged ) {
         //List<Tree> allMatches = new ArrayList<Tree>();
         
-        // Find matches for templates
-        String strQuestion  = QuestionTemplate.getQuestionString ( m, txtQuestionTemplate.getText());
-        String strAnswer    = AnswerTemplate.getAnswerString ( m, txtAnswerTemplate.getText());
+        // Find matches for templates, noting the leaves they use
+        LeafIndex index     = new LeafIndex(matchedTree);
+        LeafMarks marks     = new LeafMarks(index);
+        String strQuestion  = TemplateFiller.getQuestionString ( m, questionTemplate, marks);
+        String strAnswer    = TemplateFiller.getAnswerString ( m, answerTemplate, marks);
         
         // Display the full tree in which the match was found
-        String strMatchAll = "<html>";
+        StringBuilder strMatchAll = new StringBuilder("<html>");
         String lastRef = "";
         
-        for (Tree t : matchedTree.getLeaves()) {
-            String nodeValue = t.nodeString();
+        for (int leaf = 0; leaf < index.getLeafCount(); leaf++) {
+            String nodeValue = index.getLeaf(leaf).nodeString();
+            String tag = showTagged ? index.getPreterminal(leaf).nodeString() : null;
             
-            if (nodeValue.startsWith("{Q")) {   // This is a match for the question string
-                String ref = nodeValue.substring(2, nodeValue.indexOf("}"));
-                nodeValue = nodeValue.substring(nodeValue.indexOf("}") + 1);
-                t.setValue(nodeValue);
+            if (marks.getKind(leaf) == LeafMarks.QUESTION) {   // This is a match for the question string
+                String ref = marks.getRef(leaf);
                 
                 if (!ref.equals(lastRef))
                     lastRef = ref;
@@ -1445,15 +1819,13 @@ public class CeistView extends FrameView {
                     ref = "";
                 
                 if (!showTagged)
-                    strMatchAll += "<sup>" + ref + "</sup><b><font color=green>" + nodeValue + "</font></b> " ;
+                    strMatchAll.append("<sup>").append(ref).append("</sup><b><font color=green>").append(nodeValue).append("</font></b> ");
                 else
-                    strMatchAll += "<sup>" + ref + "</sup><b><font color=green>" + nodeValue + "</font><font color=gray>/" + t.parent(matchedTree).nodeString() + "</font></b> ";
+                    strMatchAll.append("<sup>").append(ref).append("</sup><b><font color=green>").append(nodeValue).append("</font><font color=gray>/").append(tag).append("</font></b> ");
                 
             }
-            else if (nodeValue.startsWith("{A")) {  // This is a match for the answer string
-                String ref = nodeValue.substring(2, nodeValue.indexOf("}"));
-                nodeValue = nodeValue.substring(nodeValue.indexOf("}") + 1);
-                t.setValue(nodeValue);
+            else if (marks.getKind(leaf) == LeafMarks.ANSWER) {  // This is a match for the answer string
+                String ref = marks.getRef(leaf);
 
                 if (!ref.equals(lastRef))
                     lastRef = ref;
@@ -1461,21 +1833,21 @@ public class CeistView extends FrameView {
                     ref = "";
 
                 if (!showTagged)
-                    strMatchAll += "<sup>" + ref + "</sup><b>" + nodeValue + "</b> " ;
+                    strMatchAll.append("<sup>").append(ref).append("</sup><b>").append(nodeValue).append("</b> ");
                 else
-                    strMatchAll += "<sup>" + ref + "</sup><b>" + nodeValue + "<font color=gray>/" + t.parent(matchedTree).nodeString() + "</font></b> ";
+                    strMatchAll.append("<sup>").append(ref).append("</sup><b>").append(nodeValue).append("<font color=gray>/").append(tag).append("</font></b> ");
             }
             else {  // Normal unmatched text
                 if (!showTagged)
-                    strMatchAll += nodeValue + " " ;
+                    strMatchAll.append(nodeValue).append(' ');
                 else
-                    strMatchAll += nodeValue + "<font color=gray>/" + t.parent(matchedTree).nodeString() + "</font> ";
+                    strMatchAll.append(nodeValue).append("<font color=gray>/").append(tag).append("</font> ");
             }
         }
         
-        strMatchAll += "</html>";
+        strMatchAll.append("</html>");
         
-        return new String[] {strMatchAll, strQuestion, strAnswer};
+        return new String[] {strMatchAll.toString(), strQuestion, strAnswer};
         
     }
  
@@ -1490,6 +1862,7 @@ public class CeistView extends FrameView {
     private javax.swing.ButtonGroup buttonGroup1;
     private javax.swing.ButtonGroup buttonGroup2;
     private javax.swing.JCheckBox chkRuleLocked;
+    private javax.swing.JCheckBox chkSearchWithin;
     private javax.swing.JCheckBox chkShowPreview;
     private javax.swing.JCheckBox chkShowTagged;
     private javax.swing.JMenu dataMenu;
@@ -1565,4 +1938,13 @@ public class CeistView extends FrameView {
     private dlgYesNo yesNoBox;
     private List<QGRule> qgRules;
     private dlgProgress progressBox;
+    private SearchTask searchTask;
+    private LoadDataTask loadTask;
+    private AnnotationPipeline annotationPipeline;
+    private boolean searchPending;
+    private boolean reloadPending;
+    private String tooltipPattern;
+    private TreeRefList lastHitTrees;
+    private String lastSearchPattern;
+    private String lastSearchScope;
 }
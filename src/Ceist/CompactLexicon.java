@@ -0,0 +1,406 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+import morpher.MorpherCoding;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The Morpher word form database exported to a single read only file.
+ *
+ * The file holds every word with its decoded forms, sorted by the word's
+ * UTF-8 bytes, and a table of where each word and its forms start. It is
+ * memory mapped and searched by binary search, so lookups take no locks
+ * and need neither JE nor its recovery at startup. The header records
+ * the names, lengths and times of the JE log files it was exported from,
+ * so an export older than the JE lexicon is not used.
+ *
+ * Build the file with the "lexicon" ant target, or run this class with
+ * the JE environment folder and the file to write.
+ */
+public class CompactLexicon {
+
+    public static final String FILE_NAME = "lexicon.clx";
+
+    private static final int MAGIC   = 0x434C4558;  // "CLEX"
+    private static final int VERSION = 2;
+
+    private final String     sourceStamp;
+    private final int        wordCount;
+    private final IntBuffer  offsets;
+    private final ByteBuffer pool;
+
+    private CompactLexicon (String sourceStamp, int wordCount, IntBuffer offsets, ByteBuffer pool) {
+        this.sourceStamp = sourceStamp;
+        this.wordCount   = wordCount;
+        this.offsets     = offsets;
+        this.pool        = pool;
+    }
+
+    /**
+     * Maps a lexicon file.
+     */
+    public static CompactLexicon open (File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException(file.getName() + " is not a lexicon file");
+
+            byte[] stamp = new byte[buffer.getInt()];
+            buffer.get(stamp);
+
+            int wordCount = buffer.getInt();
+            int poolSize  = buffer.getInt();
+
+            IntBuffer offsets = buffer.slice().asIntBuffer();
+            offsets.limit(wordCount * 2 + 1);
+
+            buffer.position(buffer.position() + offsets.limit() * 4);
+
+            ByteBuffer pool = buffer.slice();
+            pool.limit(poolSize);
+
+            return new CompactLexicon(new String(stamp, "UTF-8"), wordCount, offsets, pool);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Tells whether the file was exported from the JE environment as it
+     * is now, by the names, lengths and times of its .jdb log files.
+     */
+    public boolean isCurrent (File envPath) {
+        return sourceStamp.equals(getStamp(envPath));
+    }
+
+    /**
+     * Describes the .jdb log files of a JE environment. Opening the
+     * environment read only leaves them as they are.
+     */
+    static String getStamp (File envPath) {
+        File[] logFiles = envPath.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".jdb");
+            }
+        });
+
+        if (logFiles == null)
+            return "";
+
+        Arrays.sort(logFiles);
+
+        StringBuilder stamp = new StringBuilder();
+
+        for (File logFile : logFiles)
+            stamp.append(logFile.getName()).append('\t').append(logFile.length()).append('\t').append(logFile.lastModified()).append('\n');
+
+        return stamp.toString();
+    }
+
+    public int getWordCount () {
+        return wordCount;
+    }
+
+    /**
+     * Gets the forms of a word, as MorpherCoding.decode gives them.
+     *
+     * @return the forms separated by #, or null if the word is not known
+     */
+    public String getForms (String word) {
+        byte[] key = getKey(word);
+
+        if (key == null)
+            return null;
+
+        int index = findWord(key, 0);
+
+        return (index >= 0) ? getForms(index) : null;
+    }
+
+    /**
+     * Gets the index'th word, in sorted order.
+     */
+    public String getWord (int index) {
+        return getString(offsets.get(index * 2), offsets.get(index * 2 + 1));
+    }
+
+    /**
+     * Gets the forms of the index'th word.
+     */
+    public String getForms (int index) {
+        return getString(offsets.get(index * 2 + 1), offsets.get(index * 2 + 2));
+    }
+
+    /**
+     * Finds a word by binary search, starting from a given word.
+     *
+     * @return the word's index, or -(insertion point) - 1 if it is not found
+     */
+    private int findWord (byte[] key, int from) {
+        int low = from, high = wordCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareWord(mid, key);
+
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -(low + 1);
+    }
+
+    private static byte[] getKey (String word) {
+        try {
+            return word.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Inflects a word, giving the same results as Morpher.inflect.
+     */
+    public String inflect (String word, String code) {
+        return Lexicon.chooseForm(getForms(word), code);
+    }
+
+    /**
+     * Inflects many words in one pass. Words in sorted order are found by
+     * searching only the part of the file after the word before.
+     */
+    public String[] inflectAll (String[] words, String[] codes) {
+        String[] results = new String[words.length];
+        byte[] previous = null;
+        int from = 0;
+
+        for (int i = 0; i < words.length; i++) {
+            byte[] key = getKey(words[i]);
+
+            if (key == null) {
+                results[i] = Lexicon.chooseForm(null, codes[i]);
+                continue;
+            }
+
+            // Out of order, so search the whole file
+            if (previous != null && compareBytes(key, previous) < 0)
+                from = 0;
+
+            int index = findWord(key, from);
+
+            results[i] = Lexicon.chooseForm(index >= 0 ? getForms(index) : null, codes[i]);
+            from       = (index >= 0) ? index : -(index + 1);
+            previous   = key;
+        }
+
+        return results;
+    }
+
+    /**
+     * Compares a stored word with a key, byte by byte as unsigned values.
+     */
+    private int compareWord (int index, byte[] key) {
+        int start = offsets.get(index * 2);
+        int end   = offsets.get(index * 2 + 1);
+        int len   = Math.min(end - start, key.length);
+
+        for (int i = 0; i < len; i++) {
+            int a = pool.get(start + i) & 0xff;
+            int b = key[i] & 0xff;
+
+            if (a != b)
+                return a - b;
+        }
+
+        return (end - start) - key.length;
+    }
+
+    private String getString (int start, int end) {
+        byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = pool.get(start + i);
+
+        try {
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes every word in the Morpher JE database, with its decoded
+     * forms, to a lexicon file.
+     *
+     * @param envPath the JE environment folder
+     * @param file the lexicon file to write, replaced only once complete
+     * @return the number of words written
+     */
+    public static int export (File envPath, File file) throws Exception {
+        List<byte[][]> entries = new ArrayList<byte[][]>();
+        byte[] stamp = getStamp(envPath).getBytes("UTF-8");
+
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setReadOnly(true);
+        Environment environment = new Environment(envPath, envConfig);
+
+        try {
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setReadOnly(true);
+            Database database = environment.openDatabase(null, "sampleDatabase", dbConfig);
+
+            try {
+                Cursor cursor = database.openCursor(null, null);
+                DatabaseEntry key  = new DatabaseEntry();
+                DatabaseEntry data = new DatabaseEntry();
+
+                try {
+                    while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                        String word  = new String(key.getData(), key.getOffset(), key.getSize(), "UTF-8");
+                        String value = new String(data.getData(), data.getOffset(), data.getSize(), "UTF-8");
+
+                        entries.add(new byte[][] { word.getBytes("UTF-8"), MorpherCoding.decode(word, value).getBytes("UTF-8") });
+                    }
+                }
+                finally {
+                    cursor.close();
+                }
+            }
+            finally {
+                database.close();
+            }
+        }
+        finally {
+            environment.close();
+        }
+
+        Collections.sort(entries, new Comparator<byte[][]>() {
+            public int compare(byte[][] a, byte[][] b) {
+                return compareBytes(a[0], b[0]);
+            }
+        });
+
+        // A running lookup may have the old file mapped
+        File temp = SideCarFile.getTempFile(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+
+        try {
+            int poolSize = 0;
+
+            for (byte[][] entry : entries)
+                poolSize += entry[0].length + entry[1].length;
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stamp.length);
+            out.write(stamp);
+            out.writeInt(entries.size());
+            out.writeInt(poolSize);
+
+            int offset = 0;
+
+            for (byte[][] entry : entries) {
+                out.writeInt(offset);
+                offset += entry[0].length;
+                out.writeInt(offset);
+                offset += entry[1].length;
+            }
+
+            out.writeInt(offset);
+
+            for (byte[][] entry : entries) {
+                out.write(entry[0]);
+                out.write(entry[1]);
+            }
+
+            out.close();
+            SideCarFile.replace(temp, file);
+        }
+        finally {
+            out.close();
+            temp.delete();
+        }
+
+        return entries.size();
+    }
+
+    private static int compareBytes (byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+
+        for (int i = 0; i < len; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+
+            if (cmp != 0)
+                return cmp;
+        }
+
+        return a.length - b.length;
+    }
+
+    /**
+     * Exports the lexicon from the command line.
+     *
+     * Usage: CompactLexicon [envPath] [lexiconFile]
+     */
+    public static void main(String[] args) throws Exception {
+        File envPath = new File(args.length > 0 ? args[0] : Lexicon.DEFAULT_PATH);
+        File file    = new File(args.length > 1 ? args[1] : new File(envPath.getParentFile(), FILE_NAME).getPath());
+
+        int words = export(envPath, file);
+        System.out.println (String.format("Wrote %d words to %s", words, file.getPath()));
+    }
+}
@@ -0,0 +1,292 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A question or answer template split into steps once, so that filling it
+ * for each match does not split and parse the template text again.
+ *
+ * Each step is literal text, the words of a named node, the words in lower
+ * case or the words inflected with a code. Templates are kept in a cache
+ * by their text, so every rule with the same template shares one.
+ */
+public class CompiledTemplate {
+
+    private static final int LITERAL = 0;
+    private static final int WORDS   = 1;
+    private static final int LOWER   = 2;
+    private static final int INFLECT = 3;
+
+    private static final int MAX_CACHED = 2000;
+
+    private static final Map<String, CompiledTemplate> questions = new ConcurrentHashMap<String, CompiledTemplate>();
+    private static final Map<String, CompiledTemplate> answers   = new ConcurrentHashMap<String, CompiledTemplate>();
+
+    private final char     kind;
+    private final int[]    steps;
+    private final String[] texts;
+    private final String[] refs;
+    private final String[] codes;
+
+    private CompiledTemplate (char kind, List<Integer> steps, List<String> texts, List<String> refs, List<String> codes) {
+        this.kind  = kind;
+        this.steps = new int[steps.size()];
+        this.texts = texts.toArray(new String[texts.size()]);
+        this.refs  = refs.toArray(new String[refs.size()]);
+        this.codes = codes.toArray(new String[codes.size()]);
+
+        for (int i = 0; i < this.steps.length; i++)
+            this.steps[i] = steps.get(i);
+    }
+
+    /**
+     * Gets a question template. A term /1 is the words under node g1 of
+     * the match, /1->lower the words in lower case and /1->CODE the words
+     * inflected with CODE.
+     */
+    public static CompiledTemplate forQuestion (String template) {
+        return get(questions, template, LeafMarks.QUESTION);
+    }
+
+    /**
+     * Gets an answer template. A term /1 is the words under node g1 of
+     * the match.
+     */
+    public static CompiledTemplate forAnswer (String template) {
+        return get(answers, template, LeafMarks.ANSWER);
+    }
+
+    private static CompiledTemplate get (Map<String, CompiledTemplate> cache, String template, char kind) {
+        CompiledTemplate compiled = cache.get(template);
+
+        if (compiled == null) {
+            // Templates typed while editing rules should not pile up
+            if (cache.size() >= MAX_CACHED)
+                cache.clear();
+
+            compiled = compile(template, kind);
+            cache.put(template, compiled);
+        }
+
+        return compiled;
+    }
+
+    private static CompiledTemplate compile (String template, char kind) {
+        List<Integer> steps = new ArrayList<Integer>();
+        List<String>  texts = new ArrayList<String>();
+        List<String>  refs  = new ArrayList<String>();
+        List<String>  codes = new ArrayList<String>();
+
+        StringBuilder literal = new StringBuilder();
+
+        for (String term : template.split(" ")) {
+            if (!term.startsWith("/")) {
+                literal.append(term).append(' ');
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                addStep(steps, texts, refs, codes, LITERAL, literal.toString(), null, null);
+                literal.setLength(0);
+            }
+
+            String ref = term.substring(1);
+            String code = "";
+
+            // Answers take the whole term as the reference, as AnswerTemplate does
+            if (kind == LeafMarks.QUESTION && ref.contains("->")) {
+                code = ref.substring(ref.indexOf("->") + 2);
+                ref  = ref.substring(0, ref.indexOf("->"));
+            }
+
+            int step = code.equals("") ? WORDS : code.equals("lower") ? LOWER : INFLECT;
+            addStep(steps, texts, refs, codes, step, "g" + ref, ref, code);
+        }
+
+        if (literal.length() > 0)
+            addStep(steps, texts, refs, codes, LITERAL, literal.toString(), null, null);
+
+        return new CompiledTemplate(kind, steps, texts, refs, codes);
+    }
+
+    private static void addStep (List<Integer> steps, List<String> texts, List<String> refs, List<String> codes, int step, String text, String ref, String code) {
+        steps.add(step);
+        texts.add(text);
+        refs.add(ref);
+        codes.add(code);
+    }
+
+    /**
+     * Fills the template from a match.
+     *
+     * @param m the matcher, positioned on the match
+     * @param index the index of the matched tree, or null
+     * @param marks receives the leaves used, or null; needs the index
+     */
+    public String fill (TregexMatcher m, LeafIndex index, LeafMarks marks) {
+        StringBuilder out = new StringBuilder();
+        fill(m, index, marks, out);
+        return out.toString();
+    }
+
+    /**
+     * Fills the template from a match, adding the text to a buffer which
+     * the caller can reuse.
+     */
+    public void fill (TregexMatcher m, LeafIndex index, LeafMarks marks, StringBuilder out) {
+        Lexicon lexicon = null;
+
+        for (int s = 0; s < steps.length; s++) {
+            if (steps[s] == LITERAL) {
+                out.append(texts[s]);
+                continue;
+            }
+
+            Tree node = m.getNode(texts[s]);
+
+            if (node == null) {
+                out.append("?REF?");
+                continue;
+            }
+
+            if (steps[s] == INFLECT && lexicon == null)
+                lexicon = Lexicon.getDefault();
+
+            int start = out.length();
+
+            if (index != null && index.contains(node)) {
+                for (int leaf = index.getSpanStart(node); leaf < index.getSpanEnd(node); leaf++) {
+                    appendWord(out, index.getLeaf(leaf).nodeString(), s, lexicon);
+
+                    if (marks != null)
+                        marks.mark(leaf, kind, refs[s]);
+                }
+            }
+            else {
+                for (Tree leaf : node.getLeaves())
+                    appendWord(out, leaf.nodeString(), s, lexicon);
+            }
+
+            trim(out, start);
+            out.append(' ');
+        }
+    }
+
+    /**
+     * Fills the template from a match, leaving a gap for each inflected
+     * node to be filled once the batch is resolved.
+     *
+     * @param m the matcher, positioned on the match
+     * @param index the index of the matched tree, or null
+     * @param batch receives the words to inflect
+     */
+    public InflectionBatch.Text fillBatched (TregexMatcher m, LeafIndex index, InflectionBatch batch) {
+        InflectionBatch.Text text = batch.newText();
+        StringBuilder out = new StringBuilder();
+
+        for (int s = 0; s < steps.length; s++) {
+            if (steps[s] == LITERAL) {
+                out.append(texts[s]);
+                continue;
+            }
+
+            Tree node = m.getNode(texts[s]);
+
+            if (node == null) {
+                out.append("?REF?");
+                continue;
+            }
+
+            if (steps[s] != INFLECT) {
+                int start = out.length();
+
+                if (index != null && index.contains(node)) {
+                    for (int leaf = index.getSpanStart(node); leaf < index.getSpanEnd(node); leaf++)
+                        appendWord(out, index.getLeaf(leaf).nodeString(), s, null);
+                }
+                else {
+                    for (Tree leaf : node.getLeaves())
+                        appendWord(out, leaf.nodeString(), s, null);
+                }
+
+                trim(out, start);
+                out.append(' ');
+                continue;
+            }
+
+            List<Tree> leaves = node.getLeaves();
+            int[] requests = new int[leaves.size()];
+
+            for (int i = 0; i < requests.length; i++)
+                requests[i] = batch.request(leaves.get(i).nodeString(), codes[s]);
+
+            text.append(out.toString());
+            out.setLength(0);
+            text.appendGap(requests);
+            text.append(' ');
+        }
+
+        text.append(out.toString());
+
+        return text;
+    }
+
+    private void appendWord (StringBuilder out, String word, int s, Lexicon lexicon) {
+        switch (steps[s]) {
+            case LOWER:
+                out.append(word.toLowerCase());
+                break;
+            case INFLECT:
+                out.append(lexicon.inflect(word, codes[s]));
+                break;
+            default:
+                out.append(word);
+        }
+
+        out.append(' ');
+    }
+
+    /**
+     * Trims the text added since start, as String.trim would.
+     */
+    private static void trim (StringBuilder out, int start) {
+        int end = out.length();
+
+        while (end > start && out.charAt(end - 1) <= ' ')
+            end--;
+
+        out.setLength(end);
+
+        int first = start;
+
+        while (first < end && out.charAt(first) <= ' ')
+            first++;
+
+        out.delete(start, first);
+    }
+}
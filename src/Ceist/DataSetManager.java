@@ -18,8 +18,13 @@
 */
 package Ceist;
 
+import java.util.Collection;
+
 public class DataSetManager {
 
+    public static final int TEST_DATA        = 0;
+    public static final int DEVELOPMENT_DATA = 1;
+
     public TreeData testData;
     public TreeData devData;
 
@@ -28,4 +33,33 @@ public class DataSetManager {
         devData  = new TreeData();
     }
 
+    /**
+     * Gets a data set by number, TEST_DATA or DEVELOPMENT_DATA.
+     */
+    public TreeData getData (int dataSet){
+        return (dataSet == TEST_DATA) ? testData : devData;
+    }
+
+    /**
+     * Gets a read-only view over the trees of several data sets, in the
+     * order given. Data sets that are not loaded are left out. No trees
+     * are copied.
+     *
+     * @param requiredDescriptions node descriptions a tree must all have
+     *        to be included (see TreeIndex), or null for every tree
+     * @param dataSets the data set numbers, TEST_DATA or DEVELOPMENT_DATA
+     */
+    public TreeRefList getTrees (Collection<String> requiredDescriptions, int... dataSets){
+        TreeRefList trees = new TreeRefList();
+
+        for (int set : dataSets) {
+            TreeData data = getData(set);
+
+            if (data.isLoaded())
+                trees.addPart(set, data, (requiredDescriptions != null) ? data.getTreeIds(requiredDescriptions) : null);
+        }
+
+        return trees;
+    }
+
 }
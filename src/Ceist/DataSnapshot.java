@@ -0,0 +1,271 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of a loaded data set, saved in the tree folder so that the
+ * next load of the same files skips opening and merging the index of each
+ * file. It holds the number of trees in each .stp file and, unless the
+ * set was streamed, the index of the whole set.
+ *
+ * Each .stp file is recorded with its length, modification time and
+ * CRC-32. The snapshot is only used if every file has the same length and
+ * either the same time or, if it has been touched, the same CRC. It is
+ * read with a single bulk read of the whole file.
+ */
+public class DataSnapshot {
+
+    private static final int MAGIC   = 0x43534E50;  // "CSNP"
+    private static final int VERSION = 1;
+
+    private final File[]    stpFiles;
+    private final int[]     treeCounts;
+    private final TreeIndex index;
+    private boolean         touched = false;
+
+    private DataSnapshot (File[] stpFiles, int[] treeCounts, TreeIndex index) {
+        this.stpFiles   = stpFiles;
+        this.treeCounts = treeCounts;
+        this.index      = index;
+    }
+
+    public int getFileCount () {
+        return stpFiles.length;
+    }
+
+    public File getFile (int i) {
+        return stpFiles[i];
+    }
+
+    public int getTreeCount (int i) {
+        return treeCounts[i];
+    }
+
+    /**
+     * Gets the index of the whole set, or null if the set was streamed.
+     */
+    public TreeIndex getIndex () {
+        return index;
+    }
+
+    /**
+     * Tells whether a file was only found unchanged by its CRC, so the
+     * snapshot should be saved again with the new times.
+     */
+    public boolean isTouched () {
+        return touched;
+    }
+
+    /**
+     * Gets the snapshot file for a list of .stp files. Each list of files
+     * has its own snapshot.
+     */
+    static File getSnapshotFile (List<File> stpFiles) {
+        CRC32 crc = new CRC32();
+
+        for (File stpFile : stpFiles) {
+            crc.update(stpFile.getName().getBytes());
+            crc.update(0);
+        }
+
+        File folder = stpFiles.get(0).getAbsoluteFile().getParentFile();
+
+        return new File(folder, "ceist-" + Long.toHexString(crc.getValue()) + ".snap");
+    }
+
+    /**
+     * Opens the snapshot of a list of .stp files.
+     *
+     * @return the snapshot, or null if there is none or a file has changed
+     */
+    public static DataSnapshot load (List<File> stpFiles) {
+        if (stpFiles.size() == 0)
+            return null;
+
+        File snapFile = getSnapshotFile(stpFiles);
+
+        if (!snapFile.exists())
+            return null;
+
+        try {
+            ByteBuffer buffer = readFile(snapFile);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+
+            if (buffer.getInt() != stpFiles.size())
+                return null;
+
+            int[] treeCounts = new int[stpFiles.size()];
+            boolean touched = false;
+
+            for (int i = 0; i < stpFiles.size(); i++) {
+                File stpFile = stpFiles.get(i);
+
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+
+                long length   = buffer.getLong();
+                long modified = buffer.getLong();
+                long crc      = buffer.getLong();
+                treeCounts[i] = buffer.getInt();
+
+                if (!new String(name, "UTF-8").equals(stpFile.getName()) || length != stpFile.length())
+                    return null;
+
+                if (modified != stpFile.lastModified()) {
+                    if (crc != getCRC(stpFile))
+                        return null;
+
+                    touched = true;
+                }
+            }
+
+            TreeIndex index = (buffer.get() != 0) ? TreeIndex.readFrom(buffer) : null;
+
+            DataSnapshot snapshot = new DataSnapshot(stpFiles.toArray(new File[stpFiles.size()]), treeCounts, index);
+            snapshot.touched = touched;
+
+            return snapshot;
+        }
+        catch (Exception e) {
+            // A damaged snapshot is just made again
+            System.out.println (snapFile.getName() + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Saves the snapshot of a loaded list of .stp files.
+     *
+     * @param stpFiles the files, in the order they were loaded
+     * @param treeCounts the number of trees in each file
+     * @param index the index of the whole set, or null if it was streamed
+     */
+    public static void save (List<File> stpFiles, int[] treeCounts, TreeIndex index) {
+        if (stpFiles.size() == 0)
+            return;
+
+        File snapFile = getSnapshotFile(stpFiles);
+        DataOutputStream out = null;
+        File temp = null;
+
+        try {
+            // Another load may be reading the old snapshot
+            temp = SideCarFile.getTempFile(snapFile);
+            out  = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stpFiles.size());
+
+            for (int i = 0; i < stpFiles.size(); i++) {
+                File stpFile = stpFiles.get(i);
+                byte[] name = stpFile.getName().getBytes("UTF-8");
+
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeLong(stpFile.length());
+                out.writeLong(stpFile.lastModified());
+                out.writeLong(getCRC(stpFile));
+                out.writeInt(treeCounts[i]);
+            }
+
+            out.writeByte(index != null ? 1 : 0);
+
+            if (index != null)
+                index.writeTo(out);
+
+            out.close();
+            out = null;
+
+            SideCarFile.replace(temp, snapFile);
+            temp = null;
+        }
+        catch (IOException e) {
+            // The data is loaded, it just cannot be restored next time
+            System.out.println (snapFile.getName() + ": " + e.toString());
+        }
+        finally {
+            try {
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException e) {
+                System.out.println (e.toString());
+            }
+
+            if (temp != null)
+                temp.delete();
+        }
+    }
+
+    /**
+     * Reads a whole file into a buffer.
+     */
+    private static ByteBuffer readFile (File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+
+            buffer.flip();
+            return buffer;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static long getCRC (File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+
+        try {
+            byte[] block = new byte[65536];
+            int read;
+
+            while ((read = in.read(block)) > 0)
+                crc.update(block, 0, read);
+        }
+        finally {
+            in.close();
+        }
+
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,596 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import TregexGrouper.TregexGrouper;
+
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+import edu.stanford.nlp.trees.tregex.TregexPattern;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Tregex pattern whose word groups are checked by set membership rather
+ * than by TregexGrouper's long regular expressions.
+ *
+ * A node description that is just a group name, such as /familyRelation/,
+ * is compiled as any node (__) with a name, and each match is then kept
+ * only if the named node is in the group. The words of a label are looked
+ * up in a hash set, so the check costs the same however large the group
+ * is. TregexGrouper's own groups are expanded into sets from its regular
+ * expressions when this class loads. Only descriptions every match must
+ * satisfy are handled this way (see PatternLabels); group names under !,
+ * ? or inside [...] are expanded by TregexGrouper as before.
+ *
+ * Besides TregexGrouper's own groups, any word list file (one word per
+ * line) loaded with loadWordLists becomes a group named after the file.
+ * Entries that are not single words, such as "New York", are kept as a
+ * regular expression, so they match the same way in both cases.
+ *
+ * A required description /lemma:walk/ is handled the same way: it matches
+ * a leaf whose lemma is walk, read from the lemma annotations of the tree
+ * (see AnnotationPipeline) when the caller gives them. Without them each
+ * word is its own lemma.
+ */
+public class GroupPattern {
+
+    // personNP is left to TregexGrouper: it expands to a tree pattern
+    // (an NP ending in NNP), not a list of words
+    private static final String[] BUILT_IN_GROUPS = {
+        "familyRelation", "daysOfWeek", "monthsOfYear", "allColours", "allNationalities",
+        "unitsOfLength", "unitsOfTime", "nationalHolidays", "factiveA", "factiveB", "allFactive",
+        "nonfactiveA1", "nonfactiveA2", "nonfactiveA3", "nonfactiveb", "allNonfactive"
+    };
+
+    private static final String NODE_PREFIX       = "groupNode";
+    private static final String LEMMA_NODE_PREFIX = "lemmaNode";
+
+    private static final Pattern GROUP_REFERENCE = Pattern.compile("/([A-Za-z_][A-Za-z0-9_]*)/(=([A-Za-z0-9_]+))?");
+    private static final Pattern LEMMA_REFERENCE = Pattern.compile("/lemma:([^/\\s]+)/(=([A-Za-z0-9_]+))?");
+
+    private static final Map<String, WordGroup> groups = new ConcurrentHashMap<String, WordGroup>();
+
+    static {
+        for (String name : BUILT_IN_GROUPS)
+            groups.put(name, WordGroup.fromRegex(TregexGrouper.replaceGroup(name)));
+    }
+
+    private final String        text;
+    private final TregexPattern pattern;
+    private final String[]      groupNodes;
+    private final WordGroup[]   nodeGroups;
+    private final String[]      lemmaNodes;
+    private final String[]      nodeLemmas;
+
+    private GroupPattern (String text, List<String> groupNodes, List<WordGroup> nodeGroups, List<String> lemmaNodes, List<String> nodeLemmas) throws Exception {
+        this.text       = text;
+        this.pattern    = TregexPattern.compile(text);
+        this.groupNodes = groupNodes.toArray(new String[groupNodes.size()]);
+        this.nodeGroups = nodeGroups.toArray(new WordGroup[nodeGroups.size()]);
+        this.lemmaNodes = lemmaNodes.toArray(new String[lemmaNodes.size()]);
+        this.nodeLemmas = nodeLemmas.toArray(new String[nodeLemmas.size()]);
+    }
+
+    /**
+     * A set of words. The alternatives of a built-in group's regular
+     * expression that are not plain words (such as "Jan\."), and the
+     * entries of a word list that are not single words, are kept as a
+     * smaller regular expression.
+     */
+    private static class WordGroup {
+        private static final int MAX_FORMS = 1024;
+
+        private final Set<String> words;
+        private final Pattern     others;
+        private final boolean     builtIn;
+
+        WordGroup (Set<String> words, Pattern others, boolean builtIn) {
+            this.words   = words;
+            this.others  = others;
+            this.builtIn = builtIn;
+        }
+
+        /**
+         * Expands each \bword\b alternative of a TregexGrouper expression
+         * into the words it matches. Alternatives using anything besides
+         * word characters, [...] classes, (a|b) groups and ? are kept as
+         * a regular expression.
+         */
+        static WordGroup fromRegex (String regex) {
+            Set<String>   words  = new HashSet<String>();
+            StringBuilder others = new StringBuilder();
+
+            for (String alternative : splitAlternatives(regex, 0, regex.length())) {
+                List<String> forms = null;
+
+                if (alternative.startsWith("\\b") && alternative.endsWith("\\b") && alternative.length() > 4)
+                    forms = expand(alternative, 2, alternative.length() - 2);
+
+                if (forms != null)
+                    words.addAll(forms);
+                else
+                    others.append(others.length() > 0 ? "|" : "").append(alternative);
+            }
+
+            return new WordGroup(words, others.length() > 0 ? Pattern.compile(others.toString()) : null, true);
+        }
+
+        /**
+         * Splits an expression at the | characters outside any group or
+         * class.
+         */
+        private static List<String> splitAlternatives (String regex, int start, int end) {
+            List<String> alternatives = new ArrayList<String>();
+            int depth = 0, from = start;
+            boolean inClass = false;
+
+            for (int i = start; i < end; i++) {
+                char c = regex.charAt(i);
+
+                if (c == '\\')
+                    i++;
+                else if (inClass)
+                    inClass = (c != ']');
+                else if (c == '[')
+                    inClass = true;
+                else if (c == '(')
+                    depth++;
+                else if (c == ')')
+                    depth--;
+                else if (c == '|' && depth == 0) {
+                    alternatives.add(regex.substring(from, i));
+                    from = i + 1;
+                }
+            }
+
+            alternatives.add(regex.substring(from, end));
+
+            return alternatives;
+        }
+
+        /**
+         * Gets every string a part of an expression matches.
+         *
+         * @return the strings, or null if the part is not a finite set of
+         *         words this can expand
+         */
+        private static List<String> expand (String regex, int start, int end) {
+            List<String> forms = new ArrayList<String>();
+            forms.add("");
+
+            int i = start;
+
+            while (i < end) {
+                List<String> choices = new ArrayList<String>();
+                char c = regex.charAt(i);
+
+                if (isWordChar(c)) {
+                    choices.add(String.valueOf(c));
+                    i++;
+                }
+                else if (c == '[') {
+                    int close = regex.indexOf(']', i);
+
+                    if (close < 0 || close >= end)
+                        return null;
+
+                    for (int j = i + 1; j < close; j++) {
+                        if (!isWordChar(regex.charAt(j)))
+                            return null;
+
+                        choices.add(String.valueOf(regex.charAt(j)));
+                    }
+
+                    i = close + 1;
+                }
+                else if (c == '(') {
+                    int close = regex.indexOf(')', i);
+
+                    if (close < 0 || close >= end)
+                        return null;
+
+                    for (String choice : splitAlternatives(regex, i + 1, close)) {
+                        for (int j = 0; j < choice.length(); j++) {
+                            if (!isWordChar(choice.charAt(j)))
+                                return null;
+                        }
+
+                        choices.add(choice);
+                    }
+
+                    i = close + 1;
+                }
+                else
+                    return null;
+
+                if (i < end && regex.charAt(i) == '?') {
+                    choices.add("");
+                    i++;
+                }
+
+                List<String> longer = new ArrayList<String>(forms.size() * choices.size());
+
+                for (String form : forms) {
+                    for (String choice : choices)
+                        longer.add(form + choice);
+                }
+
+                if (longer.size() > MAX_FORMS)
+                    return null;
+
+                forms = longer;
+            }
+
+            return forms;
+        }
+
+        boolean contains (String label) {
+            if (label == null)
+                return false;
+
+            return containsWord(label) || (others != null && others.matcher(label).find());
+        }
+
+        /**
+         * Matches the label, or any word in it, as TregexGrouper's \bword\b
+         * expressions do.
+         */
+        private boolean containsWord (String label) {
+            if (words.contains(label))
+                return true;
+
+            int length = label.length();
+            int i = 0;
+
+            while (i < length) {
+                while (i < length && !isWordChar(label.charAt(i)))
+                    i++;
+
+                int start = i;
+
+                while (i < length && isWordChar(label.charAt(i)))
+                    i++;
+
+                if (i > start && words.contains(label.substring(start, i)))
+                    return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * A character \b treats as part of a word.
+         */
+        private static boolean isWordChar (char c) {
+            return c == '_' || Character.isLetterOrDigit(c);
+        }
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param expression the pattern as the user wrote it, with group names
+     * @throws Exception if the pattern does not compile, or has a lemma
+     *         description that not every match needs
+     */
+    public static GroupPattern compile (String expression) throws Exception {
+        List<String>    groupNodes = new ArrayList<String>();
+        List<WordGroup> nodeGroups = new ArrayList<WordGroup>();
+        List<String>    lemmaNodes = new ArrayList<String>();
+        List<String>    nodeLemmas = new ArrayList<String>();
+
+        String rewritten = rewrite(expression, groupNodes, nodeGroups, lemmaNodes, nodeLemmas);
+
+        // Tregex would take it for a regex no label matches
+        if (LEMMA_REFERENCE.matcher(rewritten).find())
+            throw new Exception("/lemma:word/ cannot be used under !, ? or inside [...]");
+
+        return new GroupPattern(TregexGrouper.replaceGroup(rewritten), groupNodes, nodeGroups, lemmaNodes, nodeLemmas);
+    }
+
+    /**
+     * Replaces each required /group/ or /lemma:word/ node description with
+     * a named __.
+     */
+    private static String rewrite (String expression, List<String> groupNodes, List<WordGroup> nodeGroups, List<String> lemmaNodes, List<String> nodeLemmas) {
+        IntList offsets = PatternLabels.getRequiredDescriptionOffsets(expression);
+        StringBuilder result = new StringBuilder();
+        int copied = 0;
+
+        for (int i = 0; i < offsets.size(); i++) {
+            Matcher m = GROUP_REFERENCE.matcher(expression);
+            m.region(offsets.get(i), expression.length());
+
+            boolean isGroup = m.lookingAt() && groups.containsKey(m.group(1));
+
+            if (!isGroup) {
+                m = LEMMA_REFERENCE.matcher(expression);
+                m.region(offsets.get(i), expression.length());
+
+                if (!m.lookingAt())
+                    continue;
+            }
+
+            // Variables (~ and #) need the real description
+            if (m.end() < expression.length() && "~#".indexOf(expression.charAt(m.end())) >= 0)
+                continue;
+
+            String name;
+
+            if (isGroup) {
+                name = (m.group(3) != null) ? m.group(3) : NODE_PREFIX + groupNodes.size();
+                groupNodes.add(name);
+                nodeGroups.add(groups.get(m.group(1)));
+            }
+            else {
+                name = (m.group(3) != null) ? m.group(3) : LEMMA_NODE_PREFIX + lemmaNodes.size();
+                lemmaNodes.add(name);
+                nodeLemmas.add(m.group(1));
+            }
+
+            result.append(expression, copied, m.start());
+            result.append("__=").append(name);
+            copied = m.end();
+        }
+
+        result.append(expression.substring(copied));
+
+        return expandWordLists(result.toString());
+    }
+
+    /**
+     * Expands the word lists left in the pattern into regular expressions,
+     * as TregexGrouper does for its own groups.
+     */
+    private static String expandWordLists (String expression) {
+        Matcher m = GROUP_REFERENCE.matcher(expression);
+        StringBuffer result = new StringBuffer();
+
+        while (m.find()) {
+            WordGroup group = groups.get(m.group(1));
+
+            if (group == null || group.builtIn)
+                continue;
+
+            StringBuilder regex = new StringBuilder();
+
+            for (String word : group.words)
+                appendWord(regex, word);
+
+            if (group.others != null)
+                regex.append(regex.length() > 0 ? "|" : "").append(group.others.pattern());
+
+            String replacement = "/" + regex + "/" + (m.group(2) != null ? m.group(2) : "");
+
+            m.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+
+        m.appendTail(result);
+
+        return result.toString();
+    }
+
+    /**
+     * Appends a word to a regular expression as a \bword\b alternative.
+     */
+    private static void appendWord (StringBuilder regex, String word) {
+        if (regex.length() > 0)
+            regex.append('|');
+
+        regex.append("\\b").append(word.replaceAll("(\\W)", "\\\\$1")).append("\\b");
+    }
+
+    /**
+     * Tests whether an entry is a single word, as containsWord splits them.
+     */
+    private static boolean isWord (String entry) {
+        for (int i = 0; i < entry.length(); i++)
+            if (!WordGroup.isWordChar(entry.charAt(i)))
+                return false;
+
+        return true;
+    }
+
+    public TregexPattern getPattern () {
+        return pattern;
+    }
+
+    /**
+     * Gets the node descriptions every match needs (see PatternLabels).
+     * Group and lemma nodes are left out, as they are checked after
+     * matching.
+     */
+    public List<String> getRequiredDescriptions () {
+        return PatternLabels.getRequiredDescriptions(text);
+    }
+
+    public TregexMatcher matcher (Tree tree) {
+        return pattern.matcher(tree);
+    }
+
+    /**
+     * Tells whether the pattern has /lemma:word/ nodes, so callers need
+     * only read the lemmas of a tree when they are used.
+     */
+    public boolean usesLemmas () {
+        return lemmaNodes.length > 0;
+    }
+
+    /**
+     * Finds the next match whose group nodes are all in their groups,
+     * taking each word as its own lemma.
+     *
+     * @param m a matcher from this pattern
+     */
+    public boolean find (TregexMatcher m) {
+        return find(m, null, null);
+    }
+
+    /**
+     * Finds the next match whose group nodes are all in their groups and
+     * whose lemma nodes are leaves with those lemmas.
+     *
+     * @param m a matcher from this pattern
+     * @param tree the tree the matcher was made for
+     * @param lemmas the lemma of each leaf of the tree, as
+     *        TreeData.getAnnotations gives them, or null to use the words
+     */
+    public boolean find (TregexMatcher m, Tree tree, String[] lemmas) {
+        List<Tree> leaves = null;
+
+        while (m.find()) {
+            if (!inGroups(m))
+                continue;
+
+            if (lemmas != null && leaves == null && lemmaNodes.length > 0)
+                leaves = tree.getLeaves();
+
+            if (hasLemmas(m, leaves, lemmas))
+                return true;
+        }
+
+        return false;
+    }
+
+    private boolean inGroups (TregexMatcher m) {
+        for (int g = 0; g < groupNodes.length; g++) {
+            Tree node = m.getNode(groupNodes[g]);
+
+            if (node == null || !nodeGroups[g].contains(node.value()))
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean hasLemmas (TregexMatcher m, List<Tree> leaves, String[] lemmas) {
+        for (int l = 0; l < lemmaNodes.length; l++) {
+            Tree node = m.getNode(lemmaNodes[l]);
+
+            if (node == null || !node.isLeaf() || !nodeLemmas[l].equals(getLemma(node, leaves, lemmas)))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the lemma of a leaf, found by identity as labels repeat.
+     */
+    private static String getLemma (Tree leaf, List<Tree> leaves, String[] lemmas) {
+        if (lemmas == null)
+            return leaf.value();
+
+        for (int i = 0; i < leaves.size(); i++) {
+            if (leaves.get(i) == leaf)
+                return (i < lemmas.length && lemmas[i] != null) ? lemmas[i] : leaf.value();
+        }
+
+        return leaf.value();
+    }
+
+    /**
+     * Tests whether the pattern matches anywhere in a tree.
+     */
+    public boolean matches (Tree tree) {
+        return find(matcher(tree));
+    }
+
+    /**
+     * Loads every .txt file in a folder as a word group named after the
+     * file, replacing any group of the same name.
+     *
+     * @return the number of groups loaded
+     */
+    public static int loadWordLists (File folder) {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.toLowerCase().endsWith(".txt");
+            }
+        });
+
+        if (files == null)
+            return 0;
+
+        int loaded = 0;
+
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - 4);
+            Set<String>   words  = new HashSet<String>();
+            StringBuilder others = new StringBuilder();
+
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+                try {
+                    String line;
+
+                    while ((line = in.readLine()) != null) {
+                        line = line.trim();
+
+                        if (line.length() == 0 || line.startsWith("#"))
+                            continue;
+
+                        // containsWord only finds single words in the set
+                        if (isWord(line))
+                            words.add(line);
+                        else
+                            appendWord(others, line);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (Exception e) {
+                System.out.println (file.getName() + ": " + e.toString());
+                continue;
+            }
+
+            groups.put(name, new WordGroup(words,
+                    others.length() > 0 ? Pattern.compile(others.toString()) : null, false));
+            loaded++;
+        }
+
+        // Patterns compiled before may have used the old groups
+        if (loaded > 0)
+            PatternCache.getDefault().clear();
+
+        return loaded;
+    }
+
+    @Override
+    public String toString () {
+        return pattern.toString();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the inflections needed by many filled templates, so they can
+ * be looked up together rather than one word at a time.
+ *
+ * Templates are filled into Text objects with a gap for each inflected
+ * node. Once every match in the batch is filled, resolve looks up each
+ * distinct word and code once, in word order, in a single pass over the
+ * lexicon, and the texts can then be read.
+ */
+public class InflectionBatch {
+
+    private final Map<String, Integer> requestIds = new HashMap<String, Integer>();
+    private final List<String>         words      = new ArrayList<String>();
+    private final List<String>         codes      = new ArrayList<String>();
+    private String[]                   results;
+
+    /**
+     * Text with gaps for inflected words.
+     */
+    public class Text {
+        private final StringBuilder text      = new StringBuilder();
+        private final IntList       gapStarts = new IntList(2);
+        private final List<int[]>   gapWords  = new ArrayList<int[]>(2);
+
+        public void append (String literal) {
+            text.append(literal);
+        }
+
+        public void append (char c) {
+            text.append(c);
+        }
+
+        /**
+         * Adds a gap for the words of a node, to be inflected and joined
+         * with spaces.
+         *
+         * @param requests the request of each word, from InflectionBatch.request
+         */
+        public void appendGap (int[] requests) {
+            gapStarts.add(text.length());
+            gapWords.add(requests);
+        }
+
+        /**
+         * Gets the text with the gaps filled. The batch must be resolved.
+         */
+        @Override
+        public String toString () {
+            if (gapStarts.size() == 0)
+                return text.toString();
+
+            StringBuilder result = new StringBuilder(text.length() + 16 * gapStarts.size());
+            int copied = 0;
+
+            for (int g = 0; g < gapStarts.size(); g++) {
+                result.append(text, copied, gapStarts.get(g));
+                copied = gapStarts.get(g);
+
+                StringBuilder gap = new StringBuilder();
+
+                for (int request : gapWords.get(g))
+                    gap.append(getResult(request)).append(' ');
+
+                // The words are trimmed as a whole, as QuestionTemplate does
+                result.append(gap.toString().trim());
+            }
+
+            result.append(text, copied, text.length());
+
+            return result.toString();
+        }
+    }
+
+    public Text newText () {
+        return new Text();
+    }
+
+    /**
+     * Asks for a word to be inflected.
+     *
+     * @return the request number, the same for the same word and code
+     */
+    public int request (String word, String code) {
+        String key = word + '\t' + code;
+        Integer id = requestIds.get(key);
+
+        if (id == null) {
+            id = words.size();
+            requestIds.put(key, id);
+            words.add(word);
+            codes.add(code);
+            results = null;
+        }
+
+        return id;
+    }
+
+    /**
+     * Looks up every request, sorted by word, in one pass.
+     */
+    public void resolve (Lexicon lexicon) {
+        TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+
+        for (Map.Entry<String, Integer> entry : requestIds.entrySet())
+            sorted.put(entry.getKey(), entry.getValue());
+
+        String[] sortedWords = new String[sorted.size()];
+        String[] sortedCodes = new String[sorted.size()];
+        int[]    ids         = new int[sorted.size()];
+        int i = 0;
+
+        for (Integer id : sorted.values()) {
+            sortedWords[i] = words.get(id);
+            sortedCodes[i] = codes.get(id);
+            ids[i]         = id;
+            i++;
+        }
+
+        String[] sortedResults = lexicon.inflectAll(sortedWords, sortedCodes);
+
+        results = new String[words.size()];
+
+        for (i = 0; i < ids.length; i++)
+            results[ids[i]] = sortedResults[i];
+    }
+
+    private String getResult (int request) {
+        if (results == null)
+            throw new IllegalStateException("Inflection batch not resolved");
+
+        return results[request];
+    }
+
+    /**
+     * Gets the number of distinct words and codes asked for.
+     */
+    public int size () {
+        return words.size();
+    }
+
+    public void clear () {
+        requestIds.clear();
+        words.clear();
+        codes.clear();
+        results = null;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+/**
+ * A growable list of ints, without boxing each one.
+ */
+public class IntList {
+    private int[] values;
+    private int   size;
+
+    public IntList () {
+        this(16);
+    }
+
+    public IntList (int capacity) {
+        values = new int[Math.max(capacity, 1)];
+        size   = 0;
+    }
+
+    public void add (int value) {
+        if (size == values.length) {
+            int[] grown = new int[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+
+        values[size++] = value;
+    }
+
+    public int get (int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        return values[index];
+    }
+
+    public void set (int index, int value) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        values[index] = value;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    public void clear () {
+        size = 0;
+    }
+
+    /**
+     * Gets the last value added, or -1 if the list is empty.
+     */
+    public int last () {
+        return size > 0 ? values[size - 1] : -1;
+    }
+
+    public int[] toArray () {
+        int[] copy = new int[size];
+        System.arraycopy(values, 0, copy, 0, size);
+        return copy;
+    }
+}
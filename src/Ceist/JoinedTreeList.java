@@ -0,0 +1,79 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Several lists of trees read as one, without copying them. The parts
+ * should not change size while the list is in use.
+ */
+public class JoinedTreeList extends AbstractList<Tree> implements RandomAccess {
+
+    private final List<List<Tree>> parts = new ArrayList<List<Tree>>();
+    private final IntList          starts = new IntList();
+    private int                    size   = 0;
+
+    public void addPart (List<Tree> part) {
+        if (part.size() == 0)
+            return;
+
+        parts.add(part);
+        starts.add(size);
+        size += part.size();
+    }
+
+    @Override
+    public int size () {
+        return size;
+    }
+
+    @Override
+    public Tree get (int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        int part = findPart(index);
+        return parts.get(part).get(index - starts.get(part));
+    }
+
+    /**
+     * Finds the part holding a tree by binary search of the part starts.
+     */
+    private int findPart (int index) {
+        int low = 0, high = parts.size() - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (starts.get(mid) <= index)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+}
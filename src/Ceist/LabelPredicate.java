@@ -0,0 +1,104 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+/**
+ * A single Tregex node description, such as NP or /^VB/, tested against
+ * labels by id. Each id is tested once and the result kept in a bit set,
+ * so checking a label again is an array lookup rather than a regex match.
+ *
+ * The ids must all come from the same LabelTable.
+ */
+public class LabelPredicate {
+
+    private final String  description;
+    private final String  literal;
+    private final Pattern regex;
+
+    private final BitSet  checked = new BitSet();
+    private final BitSet  matched = new BitSet();
+
+    /**
+     * @param description a literal label, or a regular expression between slashes
+     * @throws java.util.regex.PatternSyntaxException if the regex is not valid
+     */
+    public LabelPredicate (String description) {
+        this.description = description;
+
+        if (description.length() > 1 && description.startsWith("/") && description.endsWith("/")) {
+            literal = null;
+            regex   = Pattern.compile(description.substring(1, description.length() - 1));
+        }
+        else {
+            literal = description;
+            regex   = null;
+        }
+    }
+
+    /**
+     * Tests a label the way Tregex tests a node: an exact match for a
+     * literal, anywhere in the label for a regex.
+     */
+    public boolean matches (String label) {
+        if (label == null)
+            return false;
+
+        return (regex != null) ? regex.matcher(label).find() : literal.equals(label);
+    }
+
+    /**
+     * Tests a label by id, remembering the result.
+     */
+    public boolean matches (LabelTable labels, int id) {
+        synchronized (checked) {
+            if (checked.get(id))
+                return matched.get(id);
+        }
+
+        boolean result = matches(labels.getLabel(id));
+
+        synchronized (checked) {
+            checked.set(id);
+            matched.set(id, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests whether any of the labels matches.
+     */
+    public boolean matchesAny (LabelTable labels, int[] ids) {
+        for (int id : ids) {
+            if (matches(labels, id))
+                return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString () {
+        return description;
+    }
+}
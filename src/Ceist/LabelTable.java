@@ -0,0 +1,80 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each distinct node label or word a small id. A corpus has only a
+ * few thousand distinct labels, so anything worked out for a label can be
+ * remembered by id (see LabelPredicate). Safe to use from several threads.
+ */
+public class LabelTable {
+
+    private final Map<String, Integer> ids    = new ConcurrentHashMap<String, Integer>();
+    private final List<String>         labels = new ArrayList<String>();
+
+    /**
+     * Gets the id of a label, adding it if it is new.
+     */
+    public int intern (String label) {
+        Integer id = ids.get(label);
+
+        if (id != null)
+            return id;
+
+        synchronized (labels) {
+            id = ids.get(label);
+
+            if (id == null) {
+                id = labels.size();
+                labels.add(label);
+                ids.put(label, id);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Gets the id of a label.
+     *
+     * @return the id, or -1 if the label has not been added
+     */
+    public int getId (String label) {
+        Integer id = ids.get(label);
+        return id != null ? id : -1;
+    }
+
+    public String getLabel (int id) {
+        synchronized (labels) {
+            return labels.get(id);
+        }
+    }
+
+    public int size () {
+        synchronized (labels) {
+            return labels.size();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values a tool layer gives the leaves of the trees in one .stp file,
+ * e.g. the lemma of each word, saved beside the file as a .<layer>.ann
+ * file and reused until the .stp file changes.
+ *
+ * The file holds a table of the distinct values, then the position of
+ * each tree's first leaf, then a value number for every leaf. It is
+ * memory mapped, so only the value table is read into the heap.
+ */
+public class LeafAnnotations {
+
+    private static final int MAGIC   = 0x43414E4E;  // "CANN"
+    private static final int VERSION = 1;
+
+    private final String[]  values;
+    private final IntBuffer starts;
+    private final IntBuffer leaves;
+
+    private LeafAnnotations (String[] values, IntBuffer starts, IntBuffer leaves) {
+        this.values = values;
+        this.starts = starts;
+        this.leaves = leaves;
+    }
+
+    public int getTreeCount () {
+        return starts.limit() - 1;
+    }
+
+    public int getLeafCount (int treeId) {
+        return starts.get(treeId + 1) - starts.get(treeId);
+    }
+
+    /**
+     * Gets the value of a leaf.
+     *
+     * @param treeId the tree number in the file
+     * @param leaf the leaf number, counting from 0 left to right
+     */
+    public String get (int treeId, int leaf) {
+        if (leaf < 0 || leaf >= getLeafCount(treeId))
+            throw new IndexOutOfBoundsException("Leaf: " + leaf + ", Leaves: " + getLeafCount(treeId));
+
+        return values[leaves.get(starts.get(treeId) + leaf)];
+    }
+
+    /**
+     * Gets the annotations of a .stp file, from its .ann file if that is
+     * still up to date, otherwise by running the layer over every leaf
+     * and saving the result. The layer is asked once for each distinct
+     * word in the file.
+     *
+     * @param stpFile the .stp file the trees were loaded from
+     * @param layerName names the .ann file, e.g. lemma
+     * @param layer the tool layer
+     * @param trees the trees of the file
+     */
+    public static LeafAnnotations forFile (File stpFile, String layerName, ToolLayer layer, List<Tree> trees) {
+        File annFile = SideCarFile.forSource(stpFile, "." + layerName + ".ann");
+        LeafAnnotations annotations = open(annFile, stpFile, trees.size());
+
+        if (annotations != null)
+            return annotations;
+
+        byte[] data = encode(annotate(trees, layer), trees, stpFile);
+
+        try {
+            // The old file may still be mapped by another load
+            SideCarFile.write(annFile, data);
+        }
+        catch (IOException e) {
+            // The annotations still work, they just cannot be reused next time
+            System.out.println (annFile.getName() + ": " + e.toString());
+        }
+
+        return read(ByteBuffer.wrap(data), stpFile, trees.size());
+    }
+
+    /**
+     * The values of every leaf, with the distinct values numbered in the
+     * order they are first seen.
+     */
+    private static class Annotated {
+        final List<String> values = new ArrayList<String>();
+        final IntList      leaves = new IntList(65536);
+        final IntList      starts = new IntList();
+    }
+
+    private static Annotated annotate (List<Tree> trees, ToolLayer layer) {
+        Annotated annotated = new Annotated();
+        Map<String, Integer> wordValues = new HashMap<String, Integer>();
+        Map<String, Integer> valueIds   = new HashMap<String, Integer>();
+
+        for (Tree tree : trees) {
+            annotated.starts.add(annotated.leaves.size());
+
+            for (Tree leaf : tree.getLeaves()) {
+                String word = leaf.value() != null ? leaf.value() : "";
+                Integer valueId = wordValues.get(word);
+
+                if (valueId == null) {
+                    String value = layer.lemmatise(word);
+
+                    if (value == null)
+                        value = "";
+
+                    valueId = valueIds.get(value);
+
+                    if (valueId == null) {
+                        valueId = annotated.values.size();
+                        valueIds.put(value, valueId);
+                        annotated.values.add(value);
+                    }
+
+                    wordValues.put(word, valueId);
+                }
+
+                annotated.leaves.add(valueId);
+            }
+        }
+
+        annotated.starts.add(annotated.leaves.size());
+
+        return annotated;
+    }
+
+    private static byte[] encode (Annotated annotated, List<Tree> trees, File stpFile) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(annotated.leaves.size() * 4 + annotated.starts.size() * 4 + 65536);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            SideCarFile.writeStamp(out, stpFile);
+            out.writeInt(annotated.values.size());
+            out.writeInt(trees.size());
+            out.writeInt(annotated.leaves.size());
+
+            for (String value : annotated.values) {
+                byte[] utf8 = value.getBytes("UTF-8");
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+
+            for (int i = 0; i < annotated.starts.size(); i++)
+                out.writeInt(annotated.starts.get(i));
+
+            for (int i = 0; i < annotated.leaves.size(); i++)
+                out.writeInt(annotated.leaves.get(i));
+
+            out.flush();
+        }
+        catch (IOException e) {
+            // Not expected when writing to memory
+            System.out.println (e.toString());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Maps a .ann file, checking it was made from the current version of
+     * the .stp file.
+     *
+     * @return the annotations, or null if the file is missing or out of date
+     */
+    private static LeafAnnotations open (File annFile, File stpFile, int treeCount) {
+        if (!annFile.exists())
+            return null;
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(annFile, "r");
+            FileChannel channel = file.getChannel();
+
+            // The mapping stays valid after the file is closed
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), stpFile, treeCount);
+        }
+        catch (IOException e) {
+            System.out.println (annFile.getName() + ": " + e.toString());
+            return null;
+        }
+        finally {
+            try {
+                if (file != null)
+                    file.close();
+            }
+            catch (IOException e) {
+                System.out.println (e.toString());
+            }
+        }
+    }
+
+    private static LeafAnnotations read (ByteBuffer buffer, File stpFile, int treeCount) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+
+            if (!SideCarFile.readStamp(buffer, stpFile))
+                return null;
+
+            String[] values = new String[buffer.getInt()];
+
+            if (buffer.getInt() != treeCount)
+                return null;
+
+            int leafCount = buffer.getInt();
+
+            for (int v = 0; v < values.length; v++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                values[v] = new String(bytes, "UTF-8");
+            }
+
+            IntBuffer starts = buffer.slice().asIntBuffer();
+            starts.limit(treeCount + 1);
+
+            buffer.position(buffer.position() + (treeCount + 1) * 4);
+
+            IntBuffer leaves = buffer.slice().asIntBuffer();
+            leaves.limit(leafCount);
+
+            return new LeafAnnotations(values, starts, leaves);
+        }
+        catch (Exception e) {
+            // A truncated or damaged file is made again
+            System.out.println (stpFile.getName() + ": " + e.toString());
+            return null;
+        }
+    }
+}
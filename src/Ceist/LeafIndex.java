@@ -0,0 +1,124 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The leaves of a tree in order, with the preterminal (tag) above each
+ * leaf and the range of leaves under each node, worked out in one pass.
+ * Finding a leaf's tag or a node's words is then an array lookup, rather
+ * than Tree.parent searching the whole tree or getLeaves building a new
+ * list each time.
+ */
+public class LeafIndex {
+
+    private final Tree                 root;
+    private final Tree[]               leaves;
+    private final Tree[]               preterminals;
+    private final Map<Tree, Integer>   nodeIds = new IdentityHashMap<Tree, Integer>();
+    private final IntList              spanStarts = new IntList();
+    private final IntList              spanEnds   = new IntList();
+    private int                        leafCount  = 0;
+
+    public LeafIndex (Tree root) {
+        this.root = root;
+
+        int leafTotal = 0;
+
+        for (Tree node : root) {
+            if (node.isLeaf())
+                leafTotal++;
+        }
+
+        leaves       = new Tree[leafTotal];
+        preterminals = new Tree[leafTotal];
+
+        addNode(root, null);
+    }
+
+    /**
+     * Numbers a node and the nodes under it in preorder, recording the
+     * leaves each one covers.
+     */
+    private void addNode (Tree node, Tree parent) {
+        int id = spanStarts.size();
+
+        nodeIds.put(node, id);
+        spanStarts.add(leafCount);
+        spanEnds.add(leafCount);
+
+        if (node.isLeaf()) {
+            leaves[leafCount]       = node;
+            preterminals[leafCount] = parent;
+            leafCount++;
+        }
+        else {
+            for (Tree child : node.children())
+                addNode(child, node);
+        }
+
+        spanEnds.set(id, leafCount);
+    }
+
+    public Tree getRoot () {
+        return root;
+    }
+
+    public int getLeafCount () {
+        return leaves.length;
+    }
+
+    public Tree getLeaf (int leaf) {
+        return leaves[leaf];
+    }
+
+    /**
+     * Gets the node directly above a leaf, normally its part of speech
+     * tag, or null if the tree is a single leaf.
+     */
+    public Tree getPreterminal (int leaf) {
+        return preterminals[leaf];
+    }
+
+    /**
+     * Tests whether a node is in this tree.
+     */
+    public boolean contains (Tree node) {
+        return nodeIds.containsKey(node);
+    }
+
+    /**
+     * Gets the number of the first leaf under a node.
+     */
+    public int getSpanStart (Tree node) {
+        return spanStarts.get(nodeIds.get(node));
+    }
+
+    /**
+     * Gets the number after the last leaf under a node.
+     */
+    public int getSpanEnd (Tree node) {
+        return spanEnds.get(nodeIds.get(node));
+    }
+}
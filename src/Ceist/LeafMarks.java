@@ -0,0 +1,73 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+/**
+ * Records which leaves of a tree a question or answer template used, by
+ * leaf number, so the match can be highlighted without changing the tree.
+ * A leaf keeps the first mark it is given, as the {Q..} and {A..} markers
+ * once written into the leaves did.
+ */
+public class LeafMarks {
+
+    public static final char NONE     = 0;
+    public static final char QUESTION = 'Q';
+    public static final char ANSWER   = 'A';
+
+    private final LeafIndex index;
+    private final char[]    kinds;
+    private final String[]  refs;
+
+    public LeafMarks (LeafIndex index) {
+        this.index = index;
+        this.kinds = new char[index.getLeafCount()];
+        this.refs  = new String[index.getLeafCount()];
+    }
+
+    /**
+     * Marks a leaf as used by a template, unless it is already marked.
+     *
+     * @param leaf the leaf number
+     * @param kind QUESTION or ANSWER
+     * @param ref the template reference, e.g. "1" for /1
+     */
+    public void mark (int leaf, char kind, String ref) {
+        if (kinds[leaf] != NONE)
+            return;
+
+        kinds[leaf] = kind;
+        refs[leaf]  = ref;
+    }
+
+    public LeafIndex getIndex () {
+        return index;
+    }
+
+    /**
+     * Gets how a leaf was used: QUESTION, ANSWER or NONE.
+     */
+    public char getKind (int leaf) {
+        return kinds[leaf];
+    }
+
+    public String getRef (int leaf) {
+        return refs[leaf];
+    }
+}
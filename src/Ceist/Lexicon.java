@@ -0,0 +1,412 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+import morpher.MorpherCoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inflects words using the Morpher word form database.
+ *
+ * Gives the same results as Morpher.inflect, but the database is opened
+ * once, read only, and kept open, rather than being opened (and locked)
+ * for every word. Recent results are kept in a cache. Safe to use from
+ * several threads.
+ *
+ * If an exported lexicon.clx file is found (the path itself, or beside
+ * the JE folder) it is used instead of JE, unless it was exported before
+ * the JE folder last changed. Lookups in the file are already cheap, so
+ * they bypass the cache and are not counted in the hit and miss stats.
+ */
+public class Lexicon {
+
+    public static final String DEFAULT_PATH       = "./export/dbEnv";
+    public static final int    DEFAULT_CACHE_SIZE = 10000;
+
+    private static final String DATABASE_NAME = "sampleDatabase";
+
+    private static String  defaultPath     = DEFAULT_PATH;
+    private static Lexicon defaultLexicon  = null;
+
+    private final File                path;
+    private final Map<String, String> cache;
+    private final AtomicLong          hits   = new AtomicLong();
+    private final AtomicLong          misses = new AtomicLong();
+
+    private CompactLexicon    compact;
+    private Environment       environment;
+    private Database          database;
+    private String            openError;
+
+    public Lexicon (String path, final int cacheSize) {
+        this.path = new File(path);
+
+        File compactFile = this.path.isFile() ? this.path
+                : new File(this.path.getAbsoluteFile().getParentFile(), CompactLexicon.FILE_NAME);
+
+        if (compactFile.isFile()) {
+            try {
+                compact = CompactLexicon.open(compactFile);
+
+                // An export older than the JE lexicon beside it would give stale forms
+                if (this.path.isDirectory() && !compact.isCurrent(this.path)) {
+                    System.out.println (compactFile + " is out of date with " + path + ", using JE");
+                    compact = null;
+                }
+            }
+            catch (IOException e) {
+                System.out.println ("Cannot open lexicon " + compactFile + ": " + e.toString());
+            }
+        }
+
+        // A map in access order which drops the least recently used entry
+        this.cache = new LinkedHashMap<String, String>(cacheSize / 4 + 16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Sets where the shared lexicon is opened from. Takes effect the next
+     * time it is opened.
+     */
+    public static synchronized void setDefaultPath (String path) {
+        if (!path.equals(defaultPath))
+            closeDefault();
+
+        defaultPath = path;
+    }
+
+    /**
+     * Gets the lexicon shared by the whole application.
+     */
+    public static synchronized Lexicon getDefault () {
+        if (defaultLexicon == null)
+            defaultLexicon = new Lexicon(defaultPath, DEFAULT_CACHE_SIZE);
+
+        return defaultLexicon;
+    }
+
+    public static synchronized void closeDefault () {
+        if (defaultLexicon != null) {
+            defaultLexicon.close();
+            defaultLexicon = null;
+        }
+    }
+
+    /**
+     * Inflects a word. Uses the cache unless the compact file is in use.
+     *
+     * @param word the word to inflect
+     * @param code the inflection wanted, e.g. VPAST
+     * @return the inflected word, "" if the word has no such form, or
+     *         ??INFLECT?? if the word is not in the lexicon
+     */
+    public String inflect (String word, String code) {
+        if (compact != null)
+            return compact.inflect(word, code);
+
+        String key = word + '\t' + code;
+        String result;
+
+        synchronized (cache) {
+            result = cache.get(key);
+        }
+
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+
+        misses.incrementAndGet();
+        result = lookup(word, code);
+
+        synchronized (cache) {
+            cache.put(key, result);
+        }
+
+        return result;
+    }
+
+    private String lookup (String word, String code) {
+        try {
+            Database db = getDatabase();
+
+            if (db == null)
+                return "??" + openError + "??";
+
+            DatabaseEntry key  = new DatabaseEntry(word.getBytes("UTF-8"));
+            DatabaseEntry data = new DatabaseEntry();
+
+            if (db.get(null, key, data, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS)
+                return chooseForm(null, code);
+
+            return chooseForm(MorpherCoding.decode(word, new String(data.getData(), "UTF-8")), code);
+        }
+        catch (Exception e) {
+            return "??" + e.toString() + "??";
+        }
+    }
+
+    /**
+     * Inflects many words at once. Words already in the cache are taken
+     * from it; the rest are looked up in the order given with a single
+     * database cursor, so words given in sorted order are read in one
+     * sweep through the database.
+     *
+     * @param words the words, best sorted
+     * @param codes the inflection wanted for each word
+     * @return the inflected words, as inflect would give them
+     */
+    public String[] inflectAll (String[] words, String[] codes) {
+        if (compact != null)
+            return compact.inflectAll(words, codes);
+
+        String[] results = new String[words.length];
+        IntList  missing = new IntList();
+
+        synchronized (cache) {
+            for (int i = 0; i < words.length; i++) {
+                results[i] = cache.get(words[i] + '\t' + codes[i]);
+
+                if (results[i] == null)
+                    missing.add(i);
+            }
+        }
+
+        hits.addAndGet(words.length - missing.size());
+        misses.addAndGet(missing.size());
+
+        if (missing.size() == 0)
+            return results;
+
+        lookupAll(words, codes, missing, results);
+
+        synchronized (cache) {
+            for (int m = 0; m < missing.size(); m++) {
+                int i = missing.get(m);
+                cache.put(words[i] + '\t' + codes[i], results[i]);
+            }
+        }
+
+        return results;
+    }
+
+    private void lookupAll (String[] words, String[] codes, IntList missing, String[] results) {
+        Database db = getDatabase();
+
+        if (db == null) {
+            for (int m = 0; m < missing.size(); m++)
+                results[missing.get(m)] = "??" + openError + "??";
+            return;
+        }
+
+        Cursor cursor = null;
+
+        try {
+            cursor = db.openCursor(null, null);
+            DatabaseEntry data = new DatabaseEntry();
+
+            for (int m = 0; m < missing.size(); m++) {
+                int i = missing.get(m);
+
+                try {
+                    DatabaseEntry key = new DatabaseEntry(words[i].getBytes("UTF-8"));
+
+                    if (cursor.getSearchKey(key, data, LockMode.READ_UNCOMMITTED) != OperationStatus.SUCCESS)
+                        results[i] = chooseForm(null, codes[i]);
+                    else
+                        results[i] = chooseForm(MorpherCoding.decode(words[i], new String(data.getData(), data.getOffset(), data.getSize(), "UTF-8")), codes[i]);
+                }
+                catch (Exception e) {
+                    results[i] = "??" + e.toString() + "??";
+                }
+            }
+        }
+        catch (Exception e) {
+            for (int m = 0; m < missing.size(); m++) {
+                if (results[missing.get(m)] == null)
+                    results[missing.get(m)] = "??" + e.toString() + "??";
+            }
+        }
+        finally {
+            try {
+                if (cursor != null)
+                    cursor.close();
+            }
+            catch (Exception e) {
+                System.out.println (e.toString());
+            }
+        }
+    }
+
+    /**
+     * Receives the words of the lexicon (see scan).
+     */
+    public interface EntryHandler {
+        void entry (String word, String forms);
+    }
+
+    /**
+     * Passes every word in the lexicon, with its decoded forms, to a
+     * handler, in sorted order.
+     *
+     * @return false if the lexicon could not be read
+     */
+    public boolean scan (EntryHandler handler) {
+        if (compact != null) {
+            for (int i = 0; i < compact.getWordCount(); i++)
+                handler.entry(compact.getWord(i), compact.getForms(i));
+
+            return true;
+        }
+
+        Database db = getDatabase();
+
+        if (db == null)
+            return false;
+
+        Cursor cursor = null;
+
+        try {
+            cursor = db.openCursor(null, null);
+            DatabaseEntry key  = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+
+            while (cursor.getNext(key, data, LockMode.READ_UNCOMMITTED) == OperationStatus.SUCCESS) {
+                String word  = new String(key.getData(), key.getOffset(), key.getSize(), "UTF-8");
+                String value = new String(data.getData(), data.getOffset(), data.getSize(), "UTF-8");
+
+                handler.entry(word, MorpherCoding.decode(word, value));
+            }
+
+            return true;
+        }
+        catch (Exception e) {
+            System.out.println (e.toString());
+            return false;
+        }
+        finally {
+            try {
+                if (cursor != null)
+                    cursor.close();
+            }
+            catch (Exception e) {
+                System.out.println (e.toString());
+            }
+        }
+    }
+
+    /**
+     * Picks the form wanted from a word's decoded forms, as Morpher.inflect
+     * does.
+     *
+     * @param forms the forms separated by #, or null if the word is not known
+     * @param code the inflection wanted, e.g. VPAST
+     */
+    static String chooseForm (String forms, String code) {
+        if (forms == null)
+            return "??INFLECT??";
+
+        for (String form : forms.split("#")) {
+            if (code.equals("VPAST") && form.contains("V PAST"))
+                return form.substring(0, form.indexOf('\t'));
+        }
+
+        return "";
+    }
+
+    /**
+     * Opens the database the first time it is needed.
+     *
+     * @return the database, or null if it cannot be opened
+     */
+    private synchronized Database getDatabase () {
+        if (database != null || openError != null)
+            return database;
+
+        try {
+            EnvironmentConfig envConfig = new EnvironmentConfig();
+            envConfig.setReadOnly(true);
+            envConfig.setAllowCreate(false);
+            environment = new Environment(path, envConfig);
+
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setReadOnly(true);
+            dbConfig.setAllowCreate(false);
+            database = environment.openDatabase(null, DATABASE_NAME, dbConfig);
+        }
+        catch (Exception e) {
+            openError = e.toString();
+            System.out.println ("Cannot open lexicon " + path + ": " + openError);
+            close();
+        }
+
+        return database;
+    }
+
+    public synchronized void close () {
+        try {
+            if (database != null)
+                database.close();
+
+            if (environment != null)
+                environment.close();
+        }
+        catch (Exception e) {
+            System.out.println (e.toString());
+        }
+
+        database    = null;
+        environment = null;
+    }
+
+    public long getHits () {
+        return hits.get();
+    }
+
+    public long getMisses () {
+        return misses.get();
+    }
+
+    @Override
+    public String toString () {
+        if (compact != null)
+            return String.format("Lexicon %s: compact file, not cached", path);
+
+        return String.format("Lexicon %s: %d hits, %d misses", path, hits.get(), misses.get());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+/**
+ * A list of matches held as ints: the data set (see DataSetManager), the
+ * tree number in the data set and the number of the matched node in the
+ * tree (in preorder, as Tree.nodeNumber counts). The trees themselves are
+ * looked up again when they are needed.
+ */
+public class MatchList {
+    private final IntList dataSets;
+    private final IntList treeIds;
+    private final IntList matchNodes;
+
+    public MatchList () {
+        this(16);
+    }
+
+    public MatchList (int capacity) {
+        dataSets   = new IntList(capacity);
+        treeIds    = new IntList(capacity);
+        matchNodes = new IntList(capacity);
+    }
+
+    public void add (int dataSet, int treeId, int matchNode) {
+        dataSets.add(dataSet);
+        treeIds.add(treeId);
+        matchNodes.add(matchNode);
+    }
+
+    public void addAll (MatchList other) {
+        for (int i = 0; i < other.size(); i++)
+            add(other.getDataSet(i), other.getTreeId(i), other.getMatchNode(i));
+    }
+
+    public int size () {
+        return treeIds.size();
+    }
+
+    public int getDataSet (int index) {
+        return dataSets.get(index);
+    }
+
+    public int getTreeId (int index) {
+        return treeIds.get(index);
+    }
+
+    public int getMatchNode (int index) {
+        return matchNodes.get(index);
+    }
+
+    public void clear () {
+        dataSets.clear();
+        treeIds.clear();
+        matchNodes.clear();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The search results table. Each row is kept as a match record (see
+ * MatchList) and its tree read from the data set when needed; the
+ * sentence HTML and the question and answer text are made when the
+ * table asks for a row, so only the rows scrolled into view are ever
+ * built. The most recently shown rows are kept in a small cache.
+ *
+ * Each batch of rows is added with the renderer of the search that found
+ * it, so rows from earlier searches (in preview mode) keep their own
+ * pattern and templates.
+ */
+public class MatchTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Builds the cells of a row from the matched tree. Called on the
+     * event thread.
+     */
+    public interface RowRenderer {
+        /**
+         * @param tree the matched tree
+         * @param data the data set the tree is from, for its annotations
+         * @param treeId the tree number in the data set
+         */
+        String[] render (Tree tree, TreeData data, int treeId);
+    }
+
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final String[] COLUMN_NAMES = { "Full Sentence", "Question", "Answer" };
+
+    private final DataSetManager         dataSets;
+    private final MatchList              matches   = new MatchList(1024);
+    private final IntList                runStarts = new IntList();
+    private final List<RowRenderer>      renderers = new ArrayList<RowRenderer>();
+    private final Map<Integer, String[]> rows;
+
+    public MatchTableModel (DataSetManager dataSets) {
+        this(dataSets, DEFAULT_CACHE_SIZE);
+    }
+
+    public MatchTableModel (DataSetManager dataSets, final int cacheSize) {
+        this.dataSets = dataSets;
+
+        // A map in access order which drops the least recently used entry
+        rows = new LinkedHashMap<Integer, String[]>(cacheSize + 16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Integer, String[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Adds rows for matches.
+     *
+     * @param matched the matches, one row each
+     * @param renderer builds the rows when they are shown
+     */
+    public void addRows (MatchList matched, RowRenderer renderer) {
+        if (matched.size() == 0)
+            return;
+
+        int first = matches.size();
+
+        if (renderers.size() == 0 || renderers.get(renderers.size() - 1) != renderer) {
+            runStarts.add(first);
+            renderers.add(renderer);
+        }
+
+        matches.addAll(matched);
+        fireTableRowsInserted(first, matches.size() - 1);
+    }
+
+    public void clear () {
+        matches.clear();
+        runStarts.clear();
+        renderers.clear();
+        rows.clear();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Reads the tree of a row from its data set.
+     */
+    public Tree getTree (int row) {
+        return dataSets.getData(matches.getDataSet(row)).getTree(matches.getTreeId(row));
+    }
+
+    public MatchList getMatches () {
+        return matches;
+    }
+
+    /**
+     * Forgets the rendered rows, for when the way they are shown changes.
+     */
+    public void refresh () {
+        rows.clear();
+        fireTableDataChanged();
+    }
+
+    public int getRowCount () {
+        return matches.size();
+    }
+
+    public int getColumnCount () {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName (int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass (int column) {
+        return String.class;
+    }
+
+    public Object getValueAt (int row, int column) {
+        String[] cells = rows.get(row);
+
+        if (cells == null) {
+            TreeData data = dataSets.getData(matches.getDataSet(row));
+            int treeId    = matches.getTreeId(row);
+
+            cells = getRenderer(row).render(data.getTree(treeId), data, treeId);
+            rows.put(row, cells);
+        }
+
+        return cells[column];
+    }
+
+    /**
+     * Finds the renderer of the batch a row was added in.
+     */
+    private RowRenderer getRenderer (int row) {
+        int low = 0, high = runStarts.size() - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (runStarts.get(mid) <= row)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return renderers.get(low);
+    }
+}
@@ -18,10 +18,89 @@
 */
 package Ceist;
 
-
+/**
+ * Lemmatises words with the Morpher lexicon, by looking each form up in a
+ * reverse index of the lexicon (see ReverseLexicon) built the first time
+ * it is needed.
+ *
+ * Each thread keeps its recent words in a small table of its own, so the
+ * repeated lookups of pattern matching need no locking.
+ */
 public class MorphAdornerLayer implements ToolLayer {
 
+    private static final int CACHE_SIZE = 1024;  // a power of two
+
+    private final Lexicon  lexicon;
+    private volatile ReverseLexicon reverseLexicon;
+    private boolean                 unavailable = false;
+
+    // Each thread's recent words and lemmas, in pairs, by hash
+    private final ThreadLocal<String[]> recent = new ThreadLocal<String[]>() {
+        @Override
+        protected String[] initialValue() {
+            return new String[CACHE_SIZE * 2];
+        }
+    };
+
+    public MorphAdornerLayer (){
+        this(Lexicon.getDefault());
+    }
+
+    public MorphAdornerLayer (Lexicon lexicon){
+        this.lexicon = lexicon;
+    }
+
+    /**
+     * Gets the lemma of a word, e.g. walk for walked. A word that is not
+     * in the lexicon, in any case, is its own lemma, as is a null or
+     * empty one.
+     */
     public String lemmatise (String lexeme){
-        return "";
+        if (lexeme == null || lexeme.length() == 0)
+            return lexeme;
+
+        String[] cache = recent.get();
+        int h = lexeme.hashCode();
+        int slot = ((h ^ (h >>> 16)) & (CACHE_SIZE - 1)) * 2;
+
+        if (lexeme.equals(cache[slot]))
+            return cache[slot + 1];
+
+        String lemma = lookup(lexeme);
+
+        cache[slot]     = lexeme;
+        cache[slot + 1] = lemma;
+
+        return lemma;
+    }
+
+    private String lookup (String lexeme){
+        ReverseLexicon reverse = getReverseLexicon();
+
+        if (reverse == null)
+            return lexeme;
+
+        int entry = reverse.find(lexeme);
+
+        if (entry < 0)
+            entry = reverse.find(lexeme.toLowerCase());
+
+        return (entry >= 0) ? reverse.getLemma(entry) : lexeme;
+    }
+
+    private ReverseLexicon getReverseLexicon (){
+        ReverseLexicon reverse = reverseLexicon;
+
+        if (reverse != null)
+            return reverse;
+
+        synchronized (this) {
+            if (reverseLexicon == null && !unavailable) {
+                reverseLexicon = ReverseLexicon.build(lexicon);
+                unavailable    = (reverseLexicon == null);
+            }
+
+            return reverseLexicon;
+        }
     }
 }
@@ -0,0 +1,154 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers compiled patterns, so that searching again with the same
+ * pattern, or a rule set with many rules sharing patterns, skips group
+ * expansion and compilation. The least recently used pattern is dropped
+ * when the cache is full. Safe to use from several threads.
+ *
+ * Patterns are keyed by their text with surrounding whitespace removed
+ * and runs of whitespace between terms collapsed. Whitespace inside a
+ * regex or quotes is kept.
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_SIZE = 1000;
+
+    private static final PatternCache defaultCache = new PatternCache(DEFAULT_SIZE);
+
+    private final Map<String, GroupPattern> cache;
+    private final AtomicLong                hits   = new AtomicLong();
+    private final AtomicLong                misses = new AtomicLong();
+
+    public PatternCache (final int size) {
+        // A map in access order which drops the least recently used entry
+        this.cache = new LinkedHashMap<String, GroupPattern>(size / 4 + 16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, GroupPattern> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Gets the cache shared by the whole application.
+     */
+    public static PatternCache getDefault () {
+        return defaultCache;
+    }
+
+    /**
+     * Gets the compiled pattern for an expression, compiling it if it is
+     * not in the cache. Patterns that do not compile are not remembered.
+     *
+     * @param expression the pattern as the user wrote it, with group names
+     * @throws Exception if the pattern does not compile
+     */
+    public GroupPattern compile (String expression) throws Exception {
+        String key = normalise(expression);
+        GroupPattern pattern;
+
+        synchronized (cache) {
+            pattern = cache.get(key);
+        }
+
+        if (pattern != null) {
+            hits.incrementAndGet();
+            return pattern;
+        }
+
+        misses.incrementAndGet();
+        pattern = GroupPattern.compile(key);
+
+        synchronized (cache) {
+            cache.put(key, pattern);
+        }
+
+        return pattern;
+    }
+
+    /**
+     * Drops every pattern, for when the groups they were compiled with
+     * have changed.
+     */
+    public void clear () {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Trims a pattern and collapses whitespace outside regexes and quotes.
+     */
+    static String normalise (String expression) {
+        StringBuilder result = new StringBuilder(expression.length());
+        char quote = 0;
+        boolean space = false;
+
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+
+            if (space && result.length() > 0)
+                result.append(' ');
+
+            space = false;
+            result.append(c);
+
+            if (c == '\\' && quote != 0 && i + 1 < expression.length())
+                result.append(expression.charAt(++i));
+            else if (quote == 0 && (c == '/' || c == '"'))
+                quote = c;
+            else if (c == quote)
+                quote = 0;
+        }
+
+        return result.toString();
+    }
+
+    public long getHits () {
+        return hits.get();
+    }
+
+    public long getMisses () {
+        return misses.get();
+    }
+
+    public int size () {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public String toString () {
+        return String.format("Pattern cache: %d patterns, %d hits, %d misses", size(), hits.get(), misses.get());
+    }
+}
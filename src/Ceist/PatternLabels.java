@@ -0,0 +1,348 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the node descriptions that every match of a Tregex pattern must
+ * use, so that trees lacking them can be skipped without running the
+ * pattern.
+ *
+ * This is deliberately cautious. Descriptions under a negated (!) or
+ * optional (?) relation, inside [...] relation groups, in a path
+ * constraint such as <+(VP), or written as a disjunction (NP|VP) are not
+ * required, and anything the scanner does not understand gives no
+ * descriptions at all, which means every tree is searched.
+ */
+public class PatternLabels {
+
+    private static final String RELATION_CHARS = "<>$.,-+:'`0123456789";
+    // The characters that end an identifier, as in Tregex's IDENTIFIER token
+    private static final String SPECIAL_CHARS  = "()[]/|=~#@!&?<>$,.:;";
+
+    private final String  text;
+    private int           pos;
+
+    private PatternLabels (String text) {
+        this.text = text;
+        this.pos  = 0;
+    }
+
+    /**
+     * Gets the literal labels or words that a tree must contain to match.
+     *
+     * @param pattern the group expanded pattern text
+     * @return the labels, empty if there are none or the pattern was not understood
+     */
+    public static Set<String> getRequiredLabels (String pattern) {
+        Set<String> labels = new LinkedHashSet<String>();
+
+        for (String description : getRequiredDescriptions(pattern)) {
+            if (!description.startsWith("/"))
+                labels.add(description);
+        }
+
+        return labels;
+    }
+
+    /**
+     * Gets the node descriptions that a tree must contain a match for.
+     * Literal labels are returned as they are, regular expressions with
+     * their enclosing slashes.
+     *
+     * @param pattern the group expanded pattern text
+     * @return the descriptions, empty if there are none or the pattern was not understood
+     */
+    public static List<String> getRequiredDescriptions (String pattern) {
+        List<String> descriptions = new ArrayList<String>();
+
+        try {
+            new PatternLabels(pattern).scan(descriptions, new IntList());
+        }
+        catch (IllegalArgumentException e) {
+            descriptions.clear();
+        }
+
+        return descriptions;
+    }
+
+    /**
+     * Gets where each of the required node descriptions starts in the
+     * pattern text, in the same order as getRequiredDescriptions.
+     *
+     * @param pattern the pattern text
+     * @return the offsets, empty if there are none or the pattern was not understood
+     */
+    public static IntList getRequiredDescriptionOffsets (String pattern) {
+        IntList offsets = new IntList();
+
+        try {
+            new PatternLabels(pattern).scan(new ArrayList<String>(), offsets);
+        }
+        catch (IllegalArgumentException e) {
+            offsets.clear();
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Tests whether a pattern is another pattern with more relations added
+     * at the end, such as NP < NN becoming NP < NN $+ VP. Every match of
+     * such a pattern is in a tree the first pattern matched, so a search
+     * can be limited to those trees.
+     *
+     * @param previous the earlier pattern
+     * @param pattern the new pattern
+     */
+    public static boolean isRefinement (String previous, String pattern) {
+        previous = PatternCache.normalise(previous);
+        pattern  = PatternCache.normalise(pattern);
+
+        if (previous.length() == 0 || !pattern.startsWith(previous + " "))
+            return false;
+
+        // The added text must start with a relation, not a disjunction or name
+        char c = pattern.charAt(previous.length() + 1);
+
+        if (RELATION_CHARS.indexOf(c) < 0 && c != '!' && c != '?' && c != '[')
+            return false;
+
+        // A top level | would make the relations alternatives
+        try {
+            new PatternLabels(pattern).scan(new ArrayList<String>(), new IntList());
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Walks the pattern, alternating between node descriptions and the
+     * relations that follow them. Each open bracket remembers whether the
+     * nodes inside it are required.
+     */
+    private void scan (List<String> descriptions, IntList offsets) {
+        List<Boolean> frames     = new ArrayList<Boolean>();
+        List<Boolean> brackets   = new ArrayList<Boolean>();
+        boolean       required   = true;
+        boolean       expectNode = true;
+
+        frames.add(Boolean.TRUE);
+        brackets.add(Boolean.FALSE);
+
+        while (true) {
+            skipWhitespace();
+
+            if (pos >= text.length())
+                break;
+
+            char c = text.charAt(pos);
+            boolean frameRequired = frames.get(frames.size() - 1);
+
+            if (expectNode) {
+                if (c == '(') {
+                    pos++;
+                    frames.add(required);
+                    brackets.add(Boolean.FALSE);
+                    continue;
+                }
+
+                int start = pos;
+                String description = readNodeDescription();
+
+                if (description != null && required) {
+                    descriptions.add(description);
+                    offsets.add(start);
+                }
+
+                expectNode = false;
+            }
+            else if (c == ')' || c == ']') {
+                if (frames.size() <= 1 || brackets.get(brackets.size() - 1) != (c == ']'))
+                    throw new IllegalArgumentException("Unbalanced " + c);
+
+                frames.remove(frames.size() - 1);
+                brackets.remove(brackets.size() - 1);
+                pos++;
+            }
+            else if (c == '[') {
+                // Relations in brackets can be combined with | so none are required
+                frames.add(Boolean.FALSE);
+                brackets.add(Boolean.TRUE);
+                pos++;
+            }
+            else if (c == '&' || c == '|') {
+                if (!brackets.get(brackets.size() - 1))
+                    throw new IllegalArgumentException("Unexpected " + c);
+
+                pos++;
+            }
+            else {
+                boolean negated = false;
+
+                if (c == '!' || c == '?') {
+                    negated = true;
+                    pos++;
+                    skipWhitespace();
+
+                    // A negated or optional group of relations
+                    if (pos < text.length() && (text.charAt(pos) == '(' || text.charAt(pos) == '[')) {
+                        frames.add(Boolean.FALSE);
+                        brackets.add(text.charAt(pos) == '[');
+                        pos++;
+                        continue;
+                    }
+                }
+
+                readRelation();
+
+                required   = frameRequired && !negated;
+                expectNode = true;
+            }
+        }
+
+        if (frames.size() != 1 || expectNode)
+            throw new IllegalArgumentException("Incomplete pattern");
+    }
+
+    /**
+     * Reads a node description with any name or variable after it.
+     *
+     * @return the description if it is a single literal or regex, otherwise null
+     */
+    private String readNodeDescription () {
+        boolean exact = true;
+        String description;
+
+        char c = text.charAt(pos);
+
+        if (c == '!' || c == '@') {
+            exact = false;
+            pos++;
+        }
+
+        if (pos < text.length() && text.charAt(pos) == '/') {
+            description = readRegex();
+        }
+        else {
+            description = readIdentifier();
+
+            // Wildcards, quoted text and variables are not plain labels
+            if (description.equals("__") || description.indexOf('"') >= 0 || description.indexOf('%') >= 0 || description.indexOf('\\') >= 0)
+                exact = false;
+        }
+
+        // A disjunction of descriptions
+        while (pos < text.length() && text.charAt(pos) == '|') {
+            pos++;
+            exact = false;
+
+            if (pos < text.length() && text.charAt(pos) == '/')
+                readRegex();
+            else
+                readIdentifier();
+        }
+
+        // A name (=g1) or variable (~g1) for the node
+        while (pos < text.length() && (text.charAt(pos) == '=' || text.charAt(pos) == '~' || text.charAt(pos) == '#')) {
+            pos++;
+            readIdentifier();
+        }
+
+        return exact ? description : null;
+    }
+
+    private String readRegex () {
+        int start = pos;
+        pos++;
+
+        while (pos < text.length() && text.charAt(pos) != '/') {
+            if (text.charAt(pos) == '\\')
+                pos++;
+            pos++;
+        }
+
+        if (pos >= text.length())
+            throw new IllegalArgumentException("Unterminated regex");
+
+        pos++;
+
+        return text.substring(start, pos);
+    }
+
+    private String readIdentifier () {
+        int start = pos;
+
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+
+            if (Character.isWhitespace(c) || SPECIAL_CHARS.indexOf(c) >= 0)
+                break;
+
+            pos++;
+        }
+
+        if (pos == start)
+            throw new IllegalArgumentException("Expected a node at " + pos);
+
+        return text.substring(start, pos);
+    }
+
+    /**
+     * Reads a relation such as <, <<, <-1, $++ or <+(VP). The node
+     * description inside a path constraint is skipped.
+     */
+    private void readRelation () {
+        int start = pos;
+
+        while (pos < text.length() && RELATION_CHARS.indexOf(text.charAt(pos)) >= 0)
+            pos++;
+
+        if (pos == start)
+            throw new IllegalArgumentException("Expected a relation at " + pos);
+
+        if (text.charAt(pos - 1) == '+' && pos < text.length() && text.charAt(pos) == '(') {
+            int depth = 0;
+
+            do {
+                if (text.charAt(pos) == '(')
+                    depth++;
+                else if (text.charAt(pos) == ')')
+                    depth--;
+                pos++;
+            } while (depth > 0 && pos < text.length());
+
+            if (depth > 0)
+                throw new IllegalArgumentException("Unterminated path constraint");
+        }
+    }
+
+    private void skipWhitespace () {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+}
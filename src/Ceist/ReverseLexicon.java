@@ -0,0 +1,185 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the lemma and inflection of a word form, the reverse of Lexicon.
+ *
+ * Built once from every word in the lexicon and its forms. The forms are
+ * held in arrays with an open addressing hash table of entry numbers, and
+ * lemmas and codes as numbers into shared tables, so a lookup is a hash
+ * and a few array reads. Safe to use from several threads once built.
+ *
+ * A word which is a lemma itself is given as its own lemma, with an empty
+ * code, before any lemma it is a form of; otherwise the first lemma in
+ * sorted order wins.
+ */
+public class ReverseLexicon {
+
+    private final String[] forms;
+    private final int[]    hashes;
+    private final int[]    lemmaIds;
+    private final int[]    codeIds;
+    private final String[] lemmas;
+    private final String[] codes;
+    private final int[]    slots;
+    private final int      mask;
+
+    private ReverseLexicon (Builder builder) {
+        int count = builder.forms.size();
+
+        forms    = builder.forms.toArray(new String[count]);
+        hashes   = new int[count];
+        lemmaIds = builder.lemmaIds.toArray();
+        codeIds  = builder.codeIds.toArray();
+        lemmas   = builder.lemmas.toArray(new String[builder.lemmas.size()]);
+        codes    = builder.codes.toArray(new String[builder.codes.size()]);
+
+        int capacity = 16;
+
+        while (capacity < count * 2)
+            capacity <<= 1;
+
+        slots = new int[capacity];
+        mask  = capacity - 1;
+
+        for (int e = 0; e < count; e++) {
+            hashes[e] = hash(forms[e]);
+
+            int slot = hashes[e] & mask;
+
+            while (slots[slot] != 0 && !forms[slots[slot] - 1].equals(forms[e]))
+                slot = (slot + 1) & mask;
+
+            // Lemmas come first, so a form already here only gives way to a lemma
+            if (slots[slot] == 0 || (codes[codeIds[e]].length() == 0 && codes[codeIds[slots[slot] - 1]].length() > 0))
+                slots[slot] = e + 1;
+        }
+    }
+
+    /**
+     * Reads every word of a lexicon.
+     *
+     * @return the reverse lexicon, or null if the lexicon could not be read
+     */
+    public static ReverseLexicon build (Lexicon lexicon) {
+        final Builder builder = new Builder();
+
+        boolean read = lexicon.scan(new Lexicon.EntryHandler() {
+            public void entry(String word, String wordForms) {
+                builder.add(word, word, "");
+
+                for (String form : wordForms.split("#")) {
+                    int tab = form.indexOf('\t');
+
+                    if (tab > 0)
+                        builder.add(form.substring(0, tab), word, form.substring(tab + 1));
+                }
+            }
+        });
+
+        return read ? new ReverseLexicon(builder) : null;
+    }
+
+    /**
+     * Finds a word form.
+     *
+     * @return the entry number, or -1 if the form is not known
+     */
+    public int find (String form) {
+        int hash = hash(form);
+        int slot = hash & mask;
+
+        while (slots[slot] != 0) {
+            int e = slots[slot] - 1;
+
+            if (hashes[e] == hash && forms[e].equals(form))
+                return e;
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the lemma of an entry.
+     */
+    public String getLemma (int entry) {
+        return lemmas[lemmaIds[entry]];
+    }
+
+    /**
+     * Gets the inflection of an entry, e.g. V PAST, or "" for a lemma.
+     */
+    public String getCode (int entry) {
+        return codes[codeIds[entry]];
+    }
+
+    /**
+     * Gets the number of forms held, including repeats.
+     */
+    public int size () {
+        return forms.length;
+    }
+
+    private static int hash (String form) {
+        int h = form.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Collects the forms while the lexicon is read.
+     */
+    private static class Builder {
+        final List<String>         forms       = new ArrayList<String>();
+        final IntList              lemmaIds    = new IntList(1 << 16);
+        final IntList              codeIds     = new IntList(1 << 16);
+        final List<String>         lemmas      = new ArrayList<String>();
+        final List<String>         codes       = new ArrayList<String>();
+        final Map<String, Integer> codeNumbers = new HashMap<String, Integer>();
+        String                     lastLemma;
+
+        void add (String form, String lemma, String code) {
+            // Each lemma's forms are added together, so only a new lemma is stored
+            if (!lemma.equals(lastLemma)) {
+                lemmas.add(lemma);
+                lastLemma = lemma;
+            }
+
+            Integer codeId = codeNumbers.get(code);
+
+            if (codeId == null) {
+                codeId = codes.size();
+                codeNumbers.put(code, codeId);
+                codes.add(code);
+            }
+
+            forms.add(form);
+            lemmaIds.add(lemmas.size() - 1);
+            codeIds.add(codeId);
+        }
+    }
+}
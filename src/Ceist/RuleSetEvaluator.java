@@ -0,0 +1,285 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import QG.MatchPattern;
+import QG.QGRule;
+
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Applies a whole rule set to a tree in one go.
+ *
+ * Rules with the same match expression share one compiled pattern, which
+ * is matched once per tree and its matches passed to every rule using it.
+ * Each pattern is also keyed to the level 1 match pattern of its rules (the
+ * anchor). A tree with no node matching an anchor cannot match any pattern
+ * under it, so each distinct anchor is checked once per tree and the
+ * patterns behind a missing anchor are skipped without being run.
+ *
+ * Before either, the node descriptions a pattern cannot match without
+ * (see PatternLabels) are checked against the tree's labels. The labels
+ * are given ids shared by every tree, so each description is tested once
+ * per distinct label over the whole run.
+ */
+public class RuleSetEvaluator {
+
+    /**
+     * Receives each rule match. The matcher is positioned on the match.
+     */
+    public interface RuleMatchHandler {
+        void ruleMatched (int ruleIndex, TregexMatcher m, Tree tree);
+    }
+
+    private static final byte ANCHOR_UNKNOWN = 0;
+    private static final byte ANCHOR_FOUND   = 1;
+    private static final byte ANCHOR_MISSING = 2;
+
+    private GroupPattern[] anchors;
+    private GroupPattern[] patterns;
+    private int[]          patternAnchors;
+    private int[][]        patternRules;
+    private int            ruleCount;
+
+    private LabelTable       labels = new LabelTable();
+    private LabelPredicate[] predicates;
+    private int[][]          patternPredicates;
+
+    public RuleSetEvaluator (List<QGRule> rules) {
+        ruleCount = rules.size();
+
+        List<GroupPattern>   anchorList    = new ArrayList<GroupPattern>();
+        List<GroupPattern>   patternList   = new ArrayList<GroupPattern>();
+        List<Integer>        anchorIndexes = new ArrayList<Integer>();
+        List<List<Integer>>  ruleLists     = new ArrayList<List<Integer>>();
+
+        // The pattern cache gives rules with the same pattern the same object
+        Map<GroupPattern, Integer> anchorIds  = new IdentityHashMap<GroupPattern, Integer>();
+        Map<GroupPattern, Integer> patternIds = new IdentityHashMap<GroupPattern, Integer>();
+
+        List<LabelPredicate> predicateList  = new ArrayList<LabelPredicate>();
+        List<IntList>        predicateLists = new ArrayList<IntList>();
+        Map<String, Integer> predicateIds   = new HashMap<String, Integer>();
+
+        for (int i = 0; i < rules.size(); i++) {
+            QGRule rule = rules.get(i);
+            GroupPattern pattern;
+
+            try {
+                pattern = PatternCache.getDefault().compile(rule.getMatchPatternExpression());
+            }
+            catch (Exception e) {
+                System.err.println ("Bad pattern in rule '" + rule.getName() + "': " + e.toString());
+                continue;
+            }
+
+            Integer patternId = patternIds.get(pattern);
+
+            if (patternId == null) {
+                patternId = patternList.size();
+                patternIds.put(pattern, patternId);
+                patternList.add(pattern);
+                anchorIndexes.add(getAnchorId(rule, anchorIds, anchorList));
+                ruleLists.add(new ArrayList<Integer>());
+                predicateLists.add(getPredicateIds(pattern, predicateIds, predicateList));
+            }
+
+            ruleLists.get(patternId).add(i);
+        }
+
+        anchors        = anchorList.toArray(new GroupPattern[anchorList.size()]);
+        patterns       = patternList.toArray(new GroupPattern[patternList.size()]);
+        patternAnchors = new int[patterns.length];
+        patternRules   = new int[patterns.length][];
+        predicates     = predicateList.toArray(new LabelPredicate[predicateList.size()]);
+        patternPredicates = new int[patterns.length][];
+
+        for (int p = 0; p < patterns.length; p++) {
+            patternAnchors[p] = anchorIndexes.get(p);
+
+            List<Integer> ruleList = ruleLists.get(p);
+            patternRules[p] = new int[ruleList.size()];
+
+            for (int r = 0; r < ruleList.size(); r++)
+                patternRules[p][r] = ruleList.get(r);
+
+            patternPredicates[p] = predicateLists.get(p).toArray();
+        }
+    }
+
+    /**
+     * Finds or adds the predicates for the descriptions a pattern requires.
+     *
+     * @return the predicate indexes
+     */
+    private static IntList getPredicateIds (GroupPattern pattern, Map<String, Integer> predicateIds, List<LabelPredicate> predicateList) {
+        IntList ids = new IntList(4);
+
+        for (String description : pattern.getRequiredDescriptions()) {
+            Integer predicateId = predicateIds.get(description);
+
+            if (predicateId == null) {
+                try {
+                    predicateList.add(new LabelPredicate(description));
+                }
+                catch (PatternSyntaxException e) {
+                    continue;
+                }
+
+                predicateId = predicateList.size() - 1;
+                predicateIds.put(description, predicateId);
+            }
+
+            ids.add(predicateId);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Finds or adds the anchor for a rule: its first level 1 match pattern.
+     *
+     * @return the anchor index, or -1 if the rule has no usable anchor
+     */
+    private static int getAnchorId (QGRule rule, Map<GroupPattern, Integer> anchorIds, List<GroupPattern> anchorList) {
+        for (MatchPattern mp : rule.getMatchPatterns()) {
+            if (mp.getLevel() != 1)
+                continue;
+
+            if (mp.getPattern().trim().length() == 0)
+                return -1;
+
+            GroupPattern anchor;
+
+            try {
+                anchor = PatternCache.getDefault().compile(mp.getPattern());
+            }
+            catch (Exception e) {
+                // Not a pattern on its own, so the rule is always run
+                return -1;
+            }
+
+            Integer anchorId = anchorIds.get(anchor);
+
+            if (anchorId == null) {
+                anchorList.add(anchor);
+                anchorId = anchorList.size() - 1;
+                anchorIds.put(anchor, anchorId);
+            }
+
+            return anchorId;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Runs every rule over a tree.
+     *
+     * @param tree the tree to match
+     * @param handler receives each match, in rule order for each pattern
+     */
+    public void evaluate (Tree tree, RuleMatchHandler handler) {
+        byte[] anchorState    = new byte[anchors.length];
+        byte[] predicateState = new byte[predicates.length];
+        int[]  treeLabels     = getLabelIds(tree);
+
+        for (int p = 0; p < patterns.length; p++) {
+            if (!hasRequiredLabels(patternPredicates[p], treeLabels, predicateState))
+                continue;
+
+            int anchor = patternAnchors[p];
+
+            if (anchor >= 0) {
+                if (anchorState[anchor] == ANCHOR_UNKNOWN)
+                    anchorState[anchor] = anchors[anchor].matches(tree) ? ANCHOR_FOUND : ANCHOR_MISSING;
+
+                if (anchorState[anchor] == ANCHOR_MISSING)
+                    continue;
+            }
+
+            TregexMatcher m = patterns[p].matcher(tree);
+
+            while (patterns[p].find(m)) {
+                for (int rule : patternRules[p])
+                    handler.ruleMatched(rule, m, tree);
+            }
+        }
+    }
+
+    /**
+     * Tests whether the tree has a label for each of a pattern's predicates.
+     * Predicates shared by several patterns are only checked once a tree.
+     */
+    private boolean hasRequiredLabels (int[] patternPredicateIds, int[] treeLabels, byte[] predicateState) {
+        for (int predicate : patternPredicateIds) {
+            if (predicateState[predicate] == ANCHOR_UNKNOWN)
+                predicateState[predicate] = predicates[predicate].matchesAny(labels, treeLabels) ? ANCHOR_FOUND : ANCHOR_MISSING;
+
+            if (predicateState[predicate] == ANCHOR_MISSING)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the ids of the distinct labels in a tree.
+     */
+    private int[] getLabelIds (Tree tree) {
+        IntList ids  = new IntList();
+        BitSet  seen = new BitSet();
+
+        for (Tree node : tree) {
+            if (node.value() == null)
+                continue;
+
+            int id = labels.intern(node.value());
+
+            if (!seen.get(id)) {
+                seen.set(id);
+                ids.add(id);
+            }
+        }
+
+        return ids.toArray();
+    }
+
+    public int getRuleCount () {
+        return ruleCount;
+    }
+
+    public int getPatternCount () {
+        return patterns.length;
+    }
+
+    public int getAnchorCount () {
+        return anchors.length;
+    }
+}
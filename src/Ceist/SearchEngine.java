@@ -0,0 +1,218 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Matches a pattern against a list of trees in parallel.
+ *
+ * The trees are split into many more chunks than there are threads so
+ * that idle threads keep taking work from the queue while others are busy
+ * with slow chunks. Results are handed back in chunk order, so matches
+ * always come out in tree order whatever order the chunks finish in.
+ */
+public class SearchEngine {
+
+    /**
+     * The first match found in a tree. The matched node is numbered as
+     * Tree.nodeNumber counts. No tree is kept, so a match costs two ints
+     * however large the tree.
+     */
+    public static class Match {
+        public final int treeIndex;
+        public final int matchNode;
+
+        public Match (int treeIndex, int matchNode) {
+            this.treeIndex = treeIndex;
+            this.matchNode = matchNode;
+        }
+    }
+
+    private static final int CHUNKS_PER_THREAD = 16;
+    private static final int MIN_CHUNK_SIZE    = 32;
+
+    private ExecutorService pool;
+    private int             threads;
+
+    public SearchEngine (int threads) {
+        this.threads = threads;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Search-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Receives the results of a search as they come in.
+     */
+    public interface SearchListener {
+        /**
+         * Called with the matches of each chunk, in tree order.
+         *
+         * @param matches the matches found in the chunk
+         * @param treesSearched the number of trees searched so far
+         * @param treeCount the total number of trees being searched
+         * @return false to stop the search
+         */
+        boolean chunkSearched (List<Match> matches, int treesSearched, int treeCount);
+    }
+
+    /**
+     * Finds the first match of the pattern in each tree, passing the
+     * matches to the listener a chunk at a time. The search stops early
+     * if the listener returns false or the calling thread is interrupted,
+     * but only returns once no search thread is still reading the trees.
+     *
+     * @param trees the trees to search
+     * @param pattern the compiled pattern
+     * @param listener receives the matches, in tree order
+     */
+    public void search (final TreeRefList trees, final GroupPattern pattern, SearchListener listener) {
+        int treeCount = trees.size();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, treeCount / (threads * CHUNKS_PER_THREAD) + 1);
+
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        final AtomicInteger running = new AtomicInteger(0);
+
+        List<Future<List<Match>>> chunks = new ArrayList<Future<List<Match>>>();
+        List<Integer> chunkEnds = new ArrayList<Integer>();
+
+        for (int start = 0; start < treeCount; start += chunkSize) {
+            final int from = start;
+            final int to   = Math.min(start + chunkSize, treeCount);
+
+            chunks.add(pool.submit(new Callable<List<Match>>() {
+                public List<Match> call() {
+                    running.incrementAndGet();
+
+                    try {
+                        // A chunk started after the search stopped must not touch the trees
+                        if (stopped.get())
+                            return new ArrayList<Match>();
+
+                        return searchChunk(trees, from, to, pattern, stopped);
+                    }
+                    finally {
+                        synchronized (running) {
+                            running.decrementAndGet();
+                            running.notifyAll();
+                        }
+                    }
+                }
+            }));
+            chunkEnds.add(to);
+        }
+
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                List<Match> matches;
+
+                try {
+                    matches = chunks.get(i).get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                catch (ExecutionException e) {
+                    System.out.println (e.getCause().toString());
+                    matches = new ArrayList<Match>();
+                }
+
+                if (!listener.chunkSearched(matches, chunkEnds.get(i), treeCount))
+                    break;
+            }
+        }
+        finally {
+            // Abandon any chunks still queued or running
+            stopped.set(true);
+
+            for (Future<List<Match>> chunk : chunks)
+                chunk.cancel(false);
+
+            awaitChunks(running);
+        }
+    }
+
+    /**
+     * Waits for the chunks already running to see that the search has
+     * stopped, so that none is still reading the trees when the search
+     * returns and the data can safely be reloaded. Each stops at its next
+     * tree, so the wait is short; it is not cut short by an interrupt.
+     */
+    private static void awaitChunks (AtomicInteger running) {
+        boolean interrupted = false;
+
+        synchronized (running) {
+            while (running.get() > 0) {
+                try {
+                    running.wait();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static List<Match> searchChunk (TreeRefList trees, int from, int to, GroupPattern pattern, AtomicBoolean stopped) {
+        List<Match> matches = new ArrayList<Match>();
+        Iterator<Tree> chunk = trees.subList(from, to).iterator();
+
+        for (int i = from; i < to && !stopped.get(); i++) {
+            Tree tree = chunk.next();
+            TregexMatcher m = pattern.matcher(tree);
+            String[] lemmas = pattern.usesLemmas() ? trees.getAnnotations(AnnotationPipeline.LEMMA_LAYER, i) : null;
+
+            // Only the first match in each tree is shown
+            if (pattern.find(m, tree, lemmas))
+                matches.add(new Match(i, m.getMatch().nodeNumber(tree)));
+        }
+
+        return matches;
+    }
+
+    public void shutdown () {
+        pool.shutdown();
+    }
+}
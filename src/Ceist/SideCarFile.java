@@ -0,0 +1,134 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Files saved beside a .stp file from its trees (.stb, .idx, .ann). Each
+ * starts with the length and time of the .stp file it was made from, and
+ * is only used while they still match.
+ *
+ * These files may be memory mapped while they are rebuilt, by another
+ * load or by a search still running, so they are never written in place:
+ * a new file is written under a temporary name and renamed over the old
+ * one, and readers keep the old file until they let it go.
+ */
+public class SideCarFile {
+
+    private SideCarFile () {
+    }
+
+    /**
+     * Gets the file beside a .stp file with the .stp replaced by a suffix.
+     *
+     * @param stpFile the .stp file
+     * @param suffix the suffix, e.g. ".idx"
+     */
+    public static File forSource (File stpFile, String suffix) {
+        String name = stpFile.getName();
+
+        if (name.toLowerCase().endsWith(".stp"))
+            name = name.substring(0, name.length() - 4);
+
+        return new File(stpFile.getParentFile(), name + suffix);
+    }
+
+    /**
+     * Writes the length and time of the .stp file.
+     */
+    public static void writeStamp (DataOutput out, File stpFile) throws IOException {
+        out.writeLong(stpFile.length());
+        out.writeLong(stpFile.lastModified());
+    }
+
+    /**
+     * Reads a stamp written by writeStamp.
+     *
+     * @return true if the .stp file is unchanged since
+     */
+    public static boolean readStamp (DataInput in, File stpFile) throws IOException {
+        long length   = in.readLong();
+        long modified = in.readLong();
+
+        return length == stpFile.length() && modified == stpFile.lastModified();
+    }
+
+    /**
+     * Reads a stamp written by writeStamp from a buffer.
+     */
+    public static boolean readStamp (ByteBuffer buffer, File stpFile) {
+        long length   = buffer.getLong();
+        long modified = buffer.getLong();
+
+        return length == stpFile.length() && modified == stpFile.lastModified();
+    }
+
+    /**
+     * Makes a new file to write in place of a file, in the same folder so
+     * that it can be renamed over it.
+     */
+    public static File getTempFile (File file) throws IOException {
+        return File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Replaces a file with a new one written by getTempFile. The new file
+     * is removed if it cannot be put in place.
+     */
+    public static void replace (File temp, File file) throws IOException {
+        if (temp.renameTo(file))
+            return;
+
+        // Some systems will not rename over an existing file
+        file.delete();
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file.getName());
+        }
+    }
+
+    /**
+     * Writes a whole file under a temporary name and renames it into place.
+     */
+    public static void write (File file, byte[] data) throws IOException {
+        File temp = getTempFile(file);
+        OutputStream out = new FileOutputStream(temp);
+
+        try {
+            out.write(data);
+        }
+        catch (IOException e) {
+            out.close();
+            temp.delete();
+            throw e;
+        }
+
+        out.close();
+        replace(temp, file);
+    }
+}
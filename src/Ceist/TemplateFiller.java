@@ -0,0 +1,54 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+
+/**
+ * Fills question and answer templates from a match.
+ *
+ * Works as QuestionTemplate.getQuestionString and
+ * AnswerTemplate.getAnswerString do, except that inflections come from the
+ * shared Lexicon instead of opening the Morpher database for each word,
+ * and the leaves used are recorded in a LeafMarks rather than by writing
+ * {Q..} and {A..} into them. The trees are never changed, so they can be
+ * filled from and searched on several threads at once.
+ *
+ * Each template is parsed once (see CompiledTemplate).
+ */
+public class TemplateFiller {
+
+    /**
+     * Fills a question template, marking the leaves used. A term /1 is
+     * replaced by the words under node g1 of the match, /1->lower by the
+     * words in lower case and /1->CODE by the words inflected with CODE.
+     */
+    public static String getQuestionString (TregexMatcher m, String template, LeafMarks marks) {
+        return CompiledTemplate.forQuestion(template).fill(m, marks.getIndex(), marks);
+    }
+
+    /**
+     * Fills an answer template, marking the leaves used. A term /1 is
+     * replaced by the words under node g1 of the match.
+     */
+    public static String getAnswerString (TregexMatcher m, String template, LeafMarks marks) {
+        return CompiledTemplate.forAnswer(template).fill(m, marks.getIndex(), marks);
+    }
+}
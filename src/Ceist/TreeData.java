@@ -18,71 +18,451 @@
 */
 package Ceist;
 
-import edu.stanford.nlp.trees.Treebank;
-import edu.stanford.nlp.trees.MemoryTreebank;
-import edu.stanford.nlp.trees.TreeReaderFactory;
+import edu.stanford.nlp.trees.Tree;
 
-import edu.stanford.nlp.trees.tregex.TreeMatcher;
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * A set of trees loaded from .stp files. The trees are read from binary
+ * .stb copies of the files, and only built when they are used.
+ *
+ * In streaming mode nothing is kept in memory for a file except its name
+ * and size. Its trees and index are opened from disk when a search
+ * reaches it and may be dropped again when memory is short, so any number
+ * of files can be searched.
+ *
+ * After a load the set is saved as a snapshot (see DataSnapshot), so the
+ * next load of the same unchanged files restores it in one read.
+ */
 public class TreeData {
-    private Treebank treebank;
-    private int      treeLimit;
-    private boolean  loaded;
+    private JoinedTreeList trees;
+    private TreeIndex      index;
+    private List<TreeFile> treeFiles;
+    private List<File>     files;
+    private IntList        fileStarts;
+    private Map<String, LeafAnnotations[]> annotations;
+    private boolean        streaming;
+    private volatile boolean loaded;
 
     public TreeData (){
-        TreeReaderFactory trf;
-        trf = new TreeMatcher.TRegexTreeReaderFactory();
-        treebank = new MemoryTreebank(trf, "UTF-8");
+        trees       = new JoinedTreeList();
+        index       = new TreeIndex();
+        treeFiles   = new ArrayList<TreeFile>();
+        files       = new ArrayList<File>();
+        fileStarts  = new IntList();
+        annotations = new ConcurrentHashMap<String, LeafAnnotations[]>();
 
-        treeLimit = 30000;
+        streaming = false;
         loaded = false;
     }
 
+    /**
+     * Sets whether the next load streams the trees from disk.
+     */
+    public void setStreaming (boolean streaming){
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming (){
+        return streaming;
+    }
+
     public int Count(){
-        return treebank.size();
+        return trees.size();
     }
 
+    /**
+     * Loads the comma separated .stp files from a folder. The files are
+     * read, parsed and indexed in parallel, and their trees added in the
+     * order the files are listed.
+     */
     public void loadFromFiles (String folder, String files) {
 
         if (folder.equals(""))
             return;
 
         clear();
-        
+
+        List<File> stpFiles = new ArrayList<File>();
+
         for (String file : files.split(","))
         {
+            if (file.trim().length() > 0)
+                stpFiles.add(new File(folder, file.trim() + ".stp"));
+        }
+
+        // The same files as last time need not be opened one by one
+        if (restore(DataSnapshot.load(stpFiles)))
+            return;
+
+        List<Future<LoadedFile>> results = new ArrayList<Future<LoadedFile>>();
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        int[] treeCounts = new int[stpFiles.size()];
+        boolean complete = true;
+
+        for (final File stpFile : stpFiles)
+        {
+            results.add(pool.submit(new Callable<LoadedFile>() {
+                public LoadedFile call() {
+                    return loadFile(stpFile);
+                }
+            }));
+        }
+
+        pool.shutdown();
+
+        for (int i = 0; i < results.size(); i++)
+        {
+            LoadedFile file;
+
             try {
-                treebank.loadPath(folder + "\\" + file.trim() + ".stp");
+                file = results.get(i).get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                complete = false;
+                break;
             }
-            catch (Exception e) {
-                System.out.println (e.toString());
+            catch (ExecutionException e) {
+                System.out.println (e.getCause().toString());
+                complete = false;
+                continue;
             }
 
-            if (treebank.size() > treeLimit )
-            {
-                System.out.println ("Over " + treeLimit + " trees!");
-                break;
+            // Let each file's trees go once they are added
+            results.set(i, null);
+
+            if (file == null) {
+                complete = false;
+                continue;
+            }
+
+            treeCounts[i] = file.trees.size();
+
+            if (streaming) {
+                TreeFile treeFile = new TreeFile(file.stpFile, file.trees.size());
+                treeFiles.add(treeFile);
+                addFile(file.stpFile, treeFile);
+            }
+            else {
+                addFile(file.stpFile, file.trees);
+                index.append(file.index);
             }
         }
 
+        // Only a set with every file loaded can be restored
+        if (complete)
+            DataSnapshot.save(stpFiles, treeCounts, streaming ? null : index);
+
         loaded = true;
 
     }
 
+    /**
+     * Loads the trees recorded in a snapshot. A set that was streamed has
+     * no index, so it can only be restored in streaming mode.
+     *
+     * @return true if the set was restored
+     */
+    private boolean restore (DataSnapshot snapshot) {
+        if (snapshot == null || (!streaming && snapshot.getIndex() == null))
+            return false;
+
+        List<List<Tree>> fileTrees = new ArrayList<List<Tree>>();
+
+        for (int i = 0; i < snapshot.getFileCount(); i++) {
+            if (streaming) {
+                fileTrees.add(new TreeFile(snapshot.getFile(i), snapshot.getTreeCount(i)));
+                continue;
+            }
+
+            BinaryTreebank trees = BinaryTreebank.forFile(snapshot.getFile(i));
+
+            if (trees == null || trees.size() != snapshot.getTreeCount(i))
+                return false;
+
+            fileTrees.add(trees);
+        }
+
+        for (int i = 0; i < fileTrees.size(); i++) {
+            if (streaming)
+                treeFiles.add((TreeFile) fileTrees.get(i));
+
+            addFile(snapshot.getFile(i), fileTrees.get(i));
+        }
+
+        if (!streaming)
+            index = snapshot.getIndex();
+
+        // Save the new times of touched files, so the CRCs are not read again
+        if (snapshot.isTouched()) {
+            List<File> stpFiles = new ArrayList<File>();
+            int[] treeCounts = new int[snapshot.getFileCount()];
+
+            for (int i = 0; i < snapshot.getFileCount(); i++) {
+                stpFiles.add(snapshot.getFile(i));
+                treeCounts[i] = snapshot.getTreeCount(i);
+            }
+
+            DataSnapshot.save(stpFiles, treeCounts, snapshot.getIndex());
+        }
+
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Opens the trees of one file and its index, building either if they
+     * are missing or out of date.
+     *
+     * @return the file, or null if it could not be read
+     */
+    private static LoadedFile loadFile (File stpFile) {
+        BinaryTreebank fileTrees = BinaryTreebank.forFile(stpFile);
+
+        if (fileTrees == null)
+            return null;
+
+        return new LoadedFile(stpFile, fileTrees, TreeIndex.forFile(stpFile, fileTrees));
+    }
+
+    private static class LoadedFile {
+        final File           stpFile;
+        final BinaryTreebank trees;
+        final TreeIndex      index;
+
+        LoadedFile (File stpFile, BinaryTreebank trees, TreeIndex index) {
+            this.stpFile = stpFile;
+            this.trees   = trees;
+            this.index   = index;
+        }
+    }
+
+    private void addFile (File stpFile, List<Tree> fileTrees){
+        files.add(stpFile);
+        fileStarts.add(trees.size());
+        trees.addPart(fileTrees);
+    }
+
+    /**
+     * Gets the number of .stp files loaded.
+     */
+    public int getFileCount (){
+        return files.size();
+    }
+
+    public File getFile (int file){
+        return files.get(file);
+    }
+
+    /**
+     * Gets the trees of one loaded file. Tree numbers in the list are
+     * numbers within the file.
+     */
+    public List<Tree> getFileTrees (int file){
+        int end = (file + 1 < files.size()) ? fileStarts.get(file + 1) : trees.size();
+        return trees.subList(fileStarts.get(file), end);
+    }
+
+    /**
+     * Sets the annotations of a tool layer, one for each loaded file (see
+     * AnnotationPipeline).
+     */
+    public void setAnnotations (String layer, LeafAnnotations[] fileAnnotations){
+        annotations.put(layer, fileAnnotations);
+    }
+
+    /**
+     * Gets the annotations a tool layer gave every leaf of a tree.
+     *
+     * @param layer the layer name, e.g. lemma
+     * @param treeId the tree number in this data set
+     * @return one for each leaf, left to right, or null if the layer has
+     *         not been run or the file could not be annotated
+     */
+    public String[] getAnnotations (String layer, int treeId){
+        LeafAnnotations[] fileAnnotations = annotations.get(layer);
+
+        if (fileAnnotations == null)
+            return null;
+
+        int file = findFile(treeId);
+
+        if (fileAnnotations[file] == null)
+            return null;
+
+        int fileTreeId = treeId - fileStarts.get(file);
+        String[] values = new String[fileAnnotations[file].getLeafCount(fileTreeId)];
+
+        for (int leaf = 0; leaf < values.length; leaf++)
+            values[leaf] = fileAnnotations[file].get(fileTreeId, leaf);
+
+        return values;
+    }
+
+    /**
+     * Finds the file holding a tree by binary search of the file starts.
+     */
+    private int findFile (int treeId){
+        int low = 0, high = files.size() - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (fileStarts.get(mid) <= treeId)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+
     public void loadFromURL (String url){
 
     }
 
     public void clear (){
-         treebank.clear();
-         loaded = false;
+         // New objects rather than emptied ones, so nothing still holding
+         // the old ones sees them change
+         loaded      = false;
+         trees       = new JoinedTreeList();
+         index       = new TreeIndex();
+         treeFiles   = new ArrayList<TreeFile>();
+         files       = new ArrayList<File>();
+         fileStarts  = new IntList();
+         annotations = new ConcurrentHashMap<String, LeafAnnotations[]>();
     }
 
     public boolean isLoaded (){
         return loaded;
     }
 
-    public Treebank getTreebank(){
-        return treebank;
+    /**
+     * Gets all the trees. Each tree is built when it is read from the list.
+     */
+    public List<Tree> getTrees(){
+        return trees;
+    }
+
+    public Tree getTree (int treeId){
+        return trees.get(treeId);
+    }
+
+    /**
+     * Gets the numbers of the trees which have a node matching each of the
+     * given node descriptions.
+     *
+     * @param requiredDescriptions labels, words or regular expressions
+     *        (see PatternLabels)
+     * @return the tree numbers in ascending order, or null for every tree
+     */
+    public int[] getTreeIds (Collection<String> requiredDescriptions){
+        if (streaming)
+            return getStreamedTreeIds(requiredDescriptions);
+
+        return index.getTrees(requiredDescriptions);
+    }
+
+    /**
+     * Filters each file by its saved index, one file at a time, so only
+     * the matching tree numbers are held.
+     */
+    private int[] getStreamedTreeIds (Collection<String> requiredDescriptions){
+        if (requiredDescriptions.size() == 0)
+            return null;
+
+        IntList candidates = new IntList();
+        int start = 0;
+
+        for (TreeFile treeFile : treeFiles) {
+            int[] treeIds = treeFile.getIndex().getTrees(requiredDescriptions);
+
+            if (treeIds == null) {
+                for (int t = 0; t < treeFile.size(); t++)
+                    candidates.add(start + t);
+            }
+            else {
+                for (int t : treeIds)
+                    candidates.add(start + t);
+            }
+
+            start += treeFile.size();
+        }
+
+        return candidates.toArray();
+    }
+
+    /**
+     * The trees of one file in streaming mode. The file and its index are
+     * opened when first used and can be reclaimed by the garbage collector
+     * between uses.
+     */
+    private static class TreeFile extends AbstractList<Tree> implements RandomAccess {
+        private final File                    stpFile;
+        private final int                     size;
+        private SoftReference<BinaryTreebank> trees;
+        private SoftReference<TreeIndex>      index;
+
+        TreeFile (File stpFile, int size) {
+            this.stpFile = stpFile;
+            this.size    = size;
+            this.trees   = new SoftReference<BinaryTreebank>(null);
+            this.index   = new SoftReference<TreeIndex>(null);
+        }
+
+        @Override
+        public int size () {
+            return size;
+        }
+
+        @Override
+        public Tree get (int i) {
+            return getTrees().get(i);
+        }
+
+        private synchronized BinaryTreebank getTrees () {
+            BinaryTreebank fileTrees = trees.get();
+
+            if (fileTrees == null) {
+                fileTrees = BinaryTreebank.forFile(stpFile);
+
+                // The file has changed or gone since it was loaded
+                if (fileTrees == null || fileTrees.size() != size)
+                    throw new IllegalStateException(stpFile.getName() + " has changed, reload the data");
+
+                trees = new SoftReference<BinaryTreebank>(fileTrees);
+            }
+
+            return fileTrees;
+        }
+
+        /**
+         * Gets the file's index, kept between searches along with the
+         * label predicates it has compiled.
+         */
+        synchronized TreeIndex getIndex () {
+            TreeIndex fileIndex = index.get();
+
+            if (fileIndex == null) {
+                fileIndex = TreeIndex.forFile(stpFile, this);
+                index = new SoftReference<TreeIndex>(fileIndex);
+            }
+
+            return fileIndex;
+        }
     }
 }
@@ -0,0 +1,415 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An inverted index from node labels and leaf words to the trees that
+ * contain them. Each posting list holds tree numbers in ascending order.
+ *
+ * Labels are held by id (see LabelTable), so a regex description is
+ * tested once against each distinct label, not once per node, and the
+ * trees it can match are the union of the matching labels' lists.
+ *
+ * The index for each .stp file is saved beside it in a .idx file and
+ * reused until the .stp file changes, so only new or edited files are
+ * indexed on load.
+ */
+public class TreeIndex {
+
+    private static final int MAGIC   = 0x43494458;  // "CIDX"
+    private static final int VERSION = 1;
+
+    private LabelTable                  labels     = new LabelTable();
+    private List<IntList>               postings   = new ArrayList<IntList>();
+    private Map<String, LabelPredicate> predicates = new ConcurrentHashMap<String, LabelPredicate>();
+    private int                         treeCount  = 0;
+
+    /**
+     * Adds the labels of the next tree to the index.
+     */
+    public void addTree (Tree tree) {
+        int treeId = treeCount++;
+
+        for (Tree node : tree) {
+            String label = node.value();
+
+            if (label == null)
+                continue;
+
+            IntList trees = getPostings(labels.intern(label));
+
+            if (trees.last() != treeId)
+                trees.add(treeId);
+        }
+    }
+
+    /**
+     * Gets the posting list for a label id, adding an empty one if needed.
+     */
+    private IntList getPostings (int labelId) {
+        while (postings.size() <= labelId)
+            postings.add(new IntList(4));
+
+        return postings.get(labelId);
+    }
+
+    /**
+     * Adds another index to the end of this one, numbering its trees
+     * after the trees already here.
+     */
+    public void append (TreeIndex other) {
+        int offset = treeCount;
+
+        for (int l = 0; l < other.postings.size(); l++) {
+            IntList otherTrees = other.postings.get(l);
+            IntList trees = getPostings(labels.intern(other.labels.getLabel(l)));
+
+            for (int t = 0; t < otherTrees.size(); t++)
+                trees.add(otherTrees.get(t) + offset);
+        }
+
+        treeCount += other.treeCount;
+    }
+
+    public void clear () {
+        labels = new LabelTable();
+        postings.clear();
+        predicates.clear();
+        treeCount = 0;
+    }
+
+    public int getTreeCount () {
+        return treeCount;
+    }
+
+    /**
+     * Gets the trees containing a label.
+     *
+     * @return the tree numbers in ascending order, empty if there are none
+     */
+    public int[] getTrees (String label) {
+        int labelId = labels.getId(label);
+        return labelId >= 0 ? postings.get(labelId).toArray() : new int[0];
+    }
+
+    /**
+     * Gets the trees that have a node matching every one of the node
+     * descriptions. Literal labels are looked up directly; a regex is
+     * tested against each distinct label and the result remembered for
+     * later searches.
+     *
+     * @param descriptions literal labels or regular expressions between
+     *        slashes, as PatternLabels.getRequiredDescriptions gives them
+     * @return the tree numbers in ascending order, or null if there is nothing to filter on
+     */
+    public int[] getTrees (Collection<String> descriptions) {
+        int[] result = null;
+
+        // The literals first, as they are cheapest and usually rarest
+        for (String description : descriptions) {
+            if (!description.startsWith("/"))
+                result = restrict(result, getTrees(description));
+        }
+
+        for (String description : descriptions) {
+            if (result != null && result.length == 0)
+                break;
+
+            if (!description.startsWith("/"))
+                continue;
+
+            LabelPredicate predicate = getPredicate(description);
+
+            if (predicate != null)
+                result = restrict(result, getMatchingTrees(predicate));
+        }
+
+        return result;
+    }
+
+    private static int[] restrict (int[] result, int[] trees) {
+        return (result == null) ? trees : intersect(result, trees);
+    }
+
+    /**
+     * Gets the predicate for a description, compiling it the first time.
+     *
+     * @return the predicate, or null if the regex is not valid
+     */
+    private LabelPredicate getPredicate (String description) {
+        LabelPredicate predicate = predicates.get(description);
+
+        if (predicate == null) {
+            try {
+                predicate = new LabelPredicate(description);
+            }
+            catch (PatternSyntaxException e) {
+                return null;
+            }
+
+            predicates.put(description, predicate);
+        }
+
+        return predicate;
+    }
+
+    /**
+     * Gets the trees containing any label the predicate matches.
+     */
+    private int[] getMatchingTrees (LabelPredicate predicate) {
+        BitSet trees = new BitSet(treeCount);
+
+        for (int l = 0; l < postings.size(); l++) {
+            if (!predicate.matches(labels, l))
+                continue;
+
+            IntList labelTrees = postings.get(l);
+
+            for (int t = 0; t < labelTrees.size(); t++)
+                trees.set(labelTrees.get(t));
+        }
+
+        IntList result = new IntList(trees.cardinality());
+
+        for (int t = trees.nextSetBit(0); t >= 0; t = trees.nextSetBit(t + 1))
+            result.add(t);
+
+        return result.toArray();
+    }
+
+    /**
+     * Intersects two ascending lists of tree numbers.
+     */
+    static int[] intersect (int[] a, int[] b) {
+        IntList result = new IntList(Math.min(a.length, b.length));
+        int i = 0, j = 0;
+
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                result.add(a[i]);
+                i++;
+                j++;
+            }
+        }
+
+        return result.toArray();
+    }
+
+    /**
+     * Gets the index for a .stp file, from its .idx file if that is still
+     * up to date, otherwise by indexing the trees and saving the result.
+     *
+     * @param stpFile the .stp file the trees were loaded from
+     * @param trees the trees loaded from the file
+     */
+    public static TreeIndex forFile (File stpFile, List<Tree> trees) {
+        File indexFile = SideCarFile.forSource(stpFile, ".idx");
+        TreeIndex index = load(indexFile, stpFile, trees.size());
+
+        if (index == null) {
+            index = new TreeIndex();
+
+            for (Tree tree : trees)
+                index.addTree(tree);
+
+            index.save(indexFile, stpFile);
+        }
+
+        return index;
+    }
+
+    /**
+     * Reads an index file, checking it was made from the current version
+     * of the .stp file.
+     *
+     * @return the index, or null if it is missing or out of date
+     */
+    private static TreeIndex load (File indexFile, File stpFile, int treeCount) {
+        if (!indexFile.exists())
+            return null;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+
+            if (!SideCarFile.readStamp(in, stpFile))
+                return null;
+
+            TreeIndex index = new TreeIndex();
+            index.treeCount = in.readInt();
+
+            if (index.treeCount != treeCount)
+                return null;
+
+            int labelCount = in.readInt();
+
+            for (int l = 0; l < labelCount; l++) {
+                String label = in.readUTF();
+                int size = in.readInt();
+                IntList trees = index.getPostings(index.labels.intern(label));
+
+                for (int t = 0; t < size; t++)
+                    trees.add(in.readInt());
+            }
+
+            return index;
+        }
+        catch (IOException e) {
+            System.out.println (indexFile.getName() + ": " + e.toString());
+            return null;
+        }
+        finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Writes the index for a data set snapshot (see DataSnapshot). Each
+     * posting list is written as a count then its tree numbers, so it can
+     * be read back in one bulk read.
+     */
+    void writeTo (DataOutputStream out) throws IOException {
+        out.writeInt(treeCount);
+        out.writeInt(postings.size());
+
+        for (int l = 0; l < postings.size(); l++) {
+            IntList trees = postings.get(l);
+            byte[] label = labels.getLabel(l).getBytes("UTF-8");
+
+            out.writeInt(label.length);
+            out.write(label);
+            out.writeInt(trees.size());
+
+            for (int t = 0; t < trees.size(); t++)
+                out.writeInt(trees.get(t));
+        }
+    }
+
+    /**
+     * Reads an index written by writeTo.
+     */
+    static TreeIndex readFrom (ByteBuffer buffer) throws IOException {
+        TreeIndex index = new TreeIndex();
+        index.treeCount = buffer.getInt();
+
+        int labelCount = buffer.getInt();
+
+        for (int l = 0; l < labelCount; l++) {
+            byte[] label = new byte[buffer.getInt()];
+            buffer.get(label);
+
+            int[] trees = new int[buffer.getInt()];
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.get(trees);
+            buffer.position(buffer.position() + trees.length * 4);
+
+            IntList postings = index.getPostings(index.labels.intern(new String(label, "UTF-8")));
+
+            for (int t : trees)
+                postings.add(t);
+        }
+
+        return index;
+    }
+
+    private void save (File indexFile, File stpFile) {
+        DataOutputStream out = null;
+        File temp = null;
+
+        try {
+            // Another load may be reading the old file
+            temp = SideCarFile.getTempFile(indexFile);
+            out  = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            SideCarFile.writeStamp(out, stpFile);
+            out.writeInt(treeCount);
+
+            out.writeInt(postings.size());
+
+            for (int l = 0; l < postings.size(); l++) {
+                IntList trees = postings.get(l);
+
+                out.writeUTF(labels.getLabel(l));
+                out.writeInt(trees.size());
+
+                for (int t = 0; t < trees.size(); t++)
+                    out.writeInt(trees.get(t));
+            }
+
+            out.close();
+            out = null;
+
+            SideCarFile.replace(temp, indexFile);
+            temp = null;
+        }
+        catch (IOException e) {
+            // The index still works, it just cannot be reused next time
+            System.out.println (indexFile.getName() + ": " + e.toString());
+        }
+        finally {
+            close(out);
+
+            if (temp != null)
+                temp.delete();
+        }
+    }
+
+    private static void close (java.io.Closeable stream) {
+        if (stream == null)
+            return;
+
+        try {
+            stream.close();
+        }
+        catch (IOException e) {
+            System.out.println (e.toString());
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Trees from one or more data sets, chosen by tree number. Each tree is
+ * read from its data set when it is used, and the list can say where each
+ * tree came from, so matches can be kept as numbers (see MatchList).
+ *
+ * The list is a view: nothing is copied from the data sets, and subList
+ * gives another TreeRefList sharing the same tree numbers, so a search can
+ * split the trees between threads without copying them.
+ */
+public class TreeRefList extends AbstractList<Tree> implements RandomAccess {
+
+    private final List<TreeData> parts    = new ArrayList<TreeData>();
+    private final IntList        dataSets = new IntList();
+    private final List<int[]>    treeIds  = new ArrayList<int[]>();
+    private final IntList        firsts   = new IntList();
+    private final IntList        starts   = new IntList();
+    private int                  size     = 0;
+
+    /**
+     * Adds trees from a data set.
+     *
+     * @param dataSet the data set number (see DataSetManager)
+     * @param data the data set
+     * @param ids the tree numbers in the data set, or null for all of them
+     */
+    public void addPart (int dataSet, TreeData data, int[] ids) {
+        addPart(dataSet, data, ids, 0, (ids != null) ? ids.length : data.Count());
+    }
+
+    /**
+     * Adds count trees of a part, starting at its first'th tree.
+     */
+    private void addPart (int dataSet, TreeData data, int[] ids, int first, int count) {
+        if (count == 0)
+            return;
+
+        parts.add(data);
+        dataSets.add(dataSet);
+        treeIds.add(ids);
+        firsts.add(first);
+        starts.add(size);
+        size += count;
+    }
+
+    @Override
+    public int size () {
+        return size;
+    }
+
+    @Override
+    public Tree get (int index) {
+        int part = findPart(index);
+        return parts.get(part).getTree(getTreeId(part, index - starts.get(part)));
+    }
+
+    /**
+     * Gets the number of the data set a tree came from.
+     */
+    public int getDataSet (int index) {
+        return dataSets.get(findPart(index));
+    }
+
+    /**
+     * Gets the number of a tree in its data set.
+     */
+    public int getTreeId (int index) {
+        int part = findPart(index);
+        return getTreeId(part, index - starts.get(part));
+    }
+
+    /**
+     * Gets the annotations a tool layer gave the leaves of a tree (see
+     * TreeData.getAnnotations).
+     */
+    public String[] getAnnotations (String layer, int index) {
+        int part = findPart(index);
+        return parts.get(part).getAnnotations(layer, getTreeId(part, index - starts.get(part)));
+    }
+
+    /**
+     * Gets the tree number of the local'th tree of a part.
+     */
+    private int getTreeId (int part, int local) {
+        int[] ids = treeIds.get(part);
+        local += firsts.get(part);
+
+        return (ids != null) ? ids[local] : local;
+    }
+
+    /**
+     * Gets a view of part of the list, sharing its tree numbers.
+     */
+    @Override
+    public TreeRefList subList (int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+
+        TreeRefList view = new TreeRefList();
+
+        if (fromIndex == toIndex)
+            return view;
+
+        int last = findPart(toIndex - 1);
+
+        for (int part = findPart(fromIndex); part <= last; part++) {
+            int from = Math.max(fromIndex, starts.get(part));
+            int to   = Math.min(toIndex, partEnd(part));
+
+            view.addPart(dataSets.get(part), parts.get(part), treeIds.get(part),
+                    firsts.get(part) + from - starts.get(part), to - from);
+        }
+
+        return view;
+    }
+
+    /**
+     * Walks the trees a part at a time, without searching for each one.
+     */
+    @Override
+    public Iterator<Tree> iterator () {
+        return new Iterator<Tree>() {
+            private int part  = 0;
+            private int local = 0;
+
+            public boolean hasNext() {
+                return part < parts.size();
+            }
+
+            public Tree next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                Tree tree = parts.get(part).getTree(getTreeId(part, local));
+
+                if (starts.get(part) + ++local == partEnd(part)) {
+                    part++;
+                    local = 0;
+                }
+
+                return tree;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int partEnd (int part) {
+        return (part + 1 < parts.size()) ? starts.get(part + 1) : size;
+    }
+
+    /**
+     * Finds the part holding a tree by binary search of the part starts.
+     */
+    private int findPart (int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        int low = 0, high = parts.size() - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (starts.get(mid) <= index)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+
+        return low;
+    }
+}
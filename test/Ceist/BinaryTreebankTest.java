@@ -0,0 +1,70 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.File;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BinaryTreebankTest extends StpFileTestCase {
+
+    private static void assertTrees (String[] expected, BinaryTreebank trees) {
+        assertEquals(expected.length, trees.size());
+
+        for (int t = 0; t < expected.length; t++)
+            assertEquals(Tree.valueOf(expected[t]).toString(), trees.get(t).toString());
+    }
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+
+        assertTrees(TREES, BinaryTreebank.forFile(stpFile));
+        assertTrue(SideCarFile.forSource(stpFile, ".stb").isFile());
+
+        // Still current, so the trees must come from the .stb file alone
+        scramble(stpFile);
+
+        assertTrees(TREES, BinaryTreebank.forFile(stpFile));
+    }
+
+    @Test
+    public void testRebuiltWhenStpChanges () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+        BinaryTreebank.forFile(stpFile);
+
+        String[] changed = { TREES[1] };
+        writeStp("trees.stp", changed);
+
+        assertTrees(changed, BinaryTreebank.forFile(stpFile));
+    }
+
+    @Test
+    public void testEachGetBuildsNewTree () throws Exception {
+        BinaryTreebank trees = BinaryTreebank.forFile(writeStp("trees.stp", TREES));
+
+        trees.get(0).firstChild().setValue("X");
+
+        assertEquals("S", trees.get(0).firstChild().value());
+    }
+}
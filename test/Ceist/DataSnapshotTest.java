@@ -0,0 +1,103 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DataSnapshotTest extends StpFileTestCase {
+
+    private List<File> stpFiles;
+    private TreeIndex  index;
+
+    @Before
+    public void setUp () throws Exception {
+        stpFiles = Arrays.asList(writeStp("a.stp", TREES[0], TREES[1]),
+                                 writeStp("b.stp", TREES[2]));
+        index    = new TreeIndex();
+
+        for (Tree tree : parse(TREES))
+            index.addTree(tree);
+    }
+
+    @Test
+    public void testRoundTrip () {
+        DataSnapshot.save(stpFiles, new int[] {2, 1}, index);
+        DataSnapshot snapshot = DataSnapshot.load(stpFiles);
+
+        assertNotNull(snapshot);
+        assertFalse(snapshot.isTouched());
+        assertEquals(2, snapshot.getFileCount());
+        assertEquals(stpFiles.get(1), snapshot.getFile(1));
+        assertEquals(2, snapshot.getTreeCount(0));
+        assertEquals(1, snapshot.getTreeCount(1));
+
+        TreeIndex loaded = snapshot.getIndex();
+
+        assertEquals(3, loaded.getTreeCount());
+        assertArrayEquals(index.getTrees("VBD"), loaded.getTrees("VBD"));
+        assertArrayEquals(index.getTrees("Café"), loaded.getTrees("Café"));
+        assertArrayEquals(index.getTrees("ROOT"), loaded.getTrees("ROOT"));
+    }
+
+    @Test
+    public void testStreamedSetHasNoIndex () {
+        DataSnapshot.save(stpFiles, new int[] {2, 1}, null);
+
+        assertNull(DataSnapshot.load(stpFiles).getIndex());
+    }
+
+    @Test
+    public void testTouchedFileIsCheckedByCRC () {
+        DataSnapshot.save(stpFiles, new int[] {2, 1}, index);
+        assertTrue(stpFiles.get(0).setLastModified(stpFiles.get(0).lastModified() - 60000));
+
+        DataSnapshot snapshot = DataSnapshot.load(stpFiles);
+
+        assertNotNull(snapshot);
+        assertTrue(snapshot.isTouched());
+    }
+
+    @Test
+    public void testChangedFileIsNotUsed () throws Exception {
+        DataSnapshot.save(stpFiles, new int[] {2, 1}, index);
+        File stpFile = stpFiles.get(1);
+
+        // Same length, but a new time and CRC
+        scramble(stpFile);
+        assertTrue(stpFile.setLastModified(stpFile.lastModified() - 60000));
+
+        assertNull(DataSnapshot.load(stpFiles));
+    }
+
+    @Test
+    public void testEachListHasItsOwnSnapshot () {
+        File a = stpFiles.get(0), b = stpFiles.get(1);
+
+        assertFalse(DataSnapshot.getSnapshotFile(Arrays.asList(a, b)).equals(DataSnapshot.getSnapshotFile(Arrays.asList(b, a))));
+    }
+}
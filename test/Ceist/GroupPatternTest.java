@@ -0,0 +1,101 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GroupPatternTest {
+
+    private static final Tree TREE = Tree.valueOf("(ROOT (S (NP (PRP He)) (VP (VBD walked) (NP (NN home)))))");
+
+    // The lemma layer's values for the leaves of TREE
+    private static final String[] LEMMAS = { "he", "walk", "home" };
+
+    private static boolean matches (String expression, String[] lemmas) throws Exception {
+        GroupPattern pattern = GroupPattern.compile(expression);
+        TregexMatcher m = pattern.matcher(TREE);
+
+        return pattern.find(m, TREE, lemmas);
+    }
+
+    @Test
+    public void testLemmaNodes () throws Exception {
+        assertTrue(matches("VBD < /lemma:walk/", LEMMAS));
+        assertTrue(matches("VP < (VBD < /lemma:walk/=verb) < NP", LEMMAS));
+        assertFalse(matches("VBD < /lemma:run/", LEMMAS));
+        assertFalse(matches("NN < /lemma:walk/", LEMMAS));
+    }
+
+    @Test
+    public void testWordsAreLemmasWithoutAnnotations () throws Exception {
+        assertTrue(matches("VBD < /lemma:walked/", null));
+        assertFalse(matches("VBD < /lemma:walk/", null));
+    }
+
+    @Test
+    public void testLemmaNodesAreLeftOutOfRequiredDescriptions () throws Exception {
+        GroupPattern pattern = GroupPattern.compile("VBD < /lemma:walk/");
+
+        assertTrue(pattern.usesLemmas());
+        assertEquals(Arrays.asList("VBD"), pattern.getRequiredDescriptions());
+    }
+
+    @Test
+    public void testWordListEntriesMatchTheSameWayOnBothPaths () throws Exception {
+        File folder = File.createTempFile("ceist", "");
+        File list   = new File(folder, "testPlaces.txt");
+
+        folder.delete();
+        folder.mkdir();
+
+        try {
+            FileOutputStream out = new FileOutputStream(list);
+            out.write("home\nco-op\n".getBytes("UTF-8"));
+            out.close();
+
+            assertEquals(1, GroupPattern.loadWordLists(folder));
+        }
+        finally {
+            list.delete();
+            folder.delete();
+        }
+
+        Tree tree = Tree.valueOf("(ROOT (NP (DT the) (NN co-op)))");
+
+        // Required, so matched from the set; negated, so by the regular expression
+        assertTrue(GroupPattern.compile("NN < /testPlaces/").matches(tree));
+        assertFalse(GroupPattern.compile("NN !< /testPlaces/").matches(tree));
+        assertFalse(GroupPattern.compile("DT < /testPlaces/").matches(tree));
+        assertTrue(GroupPattern.compile("DT !< /testPlaces/").matches(tree));
+    }
+
+    @Test(expected = Exception.class)
+    public void testNegatedLemmaIsRejected () throws Exception {
+        GroupPattern.compile("VBD !< /lemma:walk/");
+    }
+}
@@ -0,0 +1,87 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.io.File;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LeafAnnotationsTest extends StpFileTestCase {
+
+    /**
+     * Lower cases words and takes -ed off, counting the words asked for.
+     */
+    private static class TestLayer implements ToolLayer {
+        int calls = 0;
+
+        public synchronized String lemmatise (String lexeme) {
+            calls++;
+            String lemma = lexeme.toLowerCase();
+            return lemma.endsWith("ed") ? lemma.substring(0, lemma.length() - 2) : lemma;
+        }
+    }
+
+    private static void assertAnnotations (LeafAnnotations annotations) {
+        assertEquals(3, annotations.getTreeCount());
+        assertEquals(4, annotations.getLeafCount(0));
+        assertEquals("he", annotations.get(0, 0));
+        assertEquals("walk", annotations.get(0, 1));
+        assertEquals("bark", annotations.get(1, 2));
+        assertEquals("café", annotations.get(2, 0));
+    }
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+        TestLayer layer = new TestLayer();
+
+        assertAnnotations(LeafAnnotations.forFile(stpFile, "lemma", layer, parse(TREES)));
+        assertTrue(SideCarFile.forSource(stpFile, ".lemma.ann").isFile());
+
+        // Each distinct word is asked for once: "." is in two trees
+        assertEquals(9, layer.calls);
+
+        TestLayer unused = new TestLayer();
+
+        assertAnnotations(LeafAnnotations.forFile(stpFile, "lemma", unused, parse(TREES)));
+        assertEquals(0, unused.calls);
+    }
+
+    @Test
+    public void testRebuiltWhenStpChanges () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+        LeafAnnotations.forFile(stpFile, "lemma", new TestLayer(), parse(TREES));
+
+        writeStp("trees.stp", TREES[1]);
+        LeafAnnotations annotations = LeafAnnotations.forFile(stpFile, "lemma", new TestLayer(), parse(TREES[1]));
+
+        assertEquals(1, annotations.getTreeCount());
+        assertEquals("the", annotations.get(0, 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testLeafOutOfRange () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+        LeafAnnotations annotations = LeafAnnotations.forFile(stpFile, "lemma", new TestLayer(), parse(TREES));
+
+        annotations.get(2, 2);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Only descriptions every match needs may be used to skip trees, so
+ * nothing under a negation, an optional relation, a disjunction or a
+ * [...] group may be reported as required.
+ */
+public class PatternLabelsTest {
+
+    private static void assertRequired (String pattern, String... expected) {
+        assertEquals(pattern, Arrays.asList(expected), PatternLabels.getRequiredDescriptions(pattern));
+    }
+
+    @Test
+    public void testPlainRelations () {
+        assertRequired("S < NP < VP", "S", "NP", "VP");
+        assertRequired("(S < NP) < VP", "S", "NP", "VP");
+        assertRequired("S < /^VB/", "S", "/^VB/");
+    }
+
+    @Test
+    public void testNegation () {
+        assertRequired("S < NP !< PP", "S", "NP");
+        assertRequired("S < NP !<< (PP < IN)", "S", "NP");
+        assertRequired("S < /^VB/ !< /^NN/", "S", "/^VB/");
+        assertRequired("S < (NP !< DT)", "S", "NP");
+    }
+
+    @Test
+    public void testOptional () {
+        assertRequired("S < NP ?< PP", "S", "NP");
+        assertRequired("S < NP ?< (PP < IN)", "S", "NP");
+    }
+
+    @Test
+    public void testDisjunction () {
+        assertRequired("S < (NP|VP)", "S");
+        assertRequired("S < NP|VP", "S");
+        assertRequired("NP|VP < DT", "DT");
+    }
+
+    @Test
+    public void testPatternDisjunction () {
+        // Either half may match, so neither half's nodes are required
+        assertRequired("S < NP || VP < NN");
+    }
+
+    @Test
+    public void testRelationGroups () {
+        assertRequired("S [< NP | < VP]", "S");
+        assertRequired("S [< NP & < VP]", "S");
+        assertRequired("S < NP [< VP | < PP] < NN", "S", "NP", "NN");
+    }
+
+    @Test
+    public void testRelationsWithoutSpaces () {
+        assertRequired("S<NP<VP", "S", "NP", "VP");
+        assertRequired("NP$VP", "NP", "VP");
+        assertRequired("NP$++VP", "NP", "VP");
+        assertRequired("NP,VP", "NP", "VP");
+        assertRequired("NP,,VP", "NP", "VP");
+        assertRequired("S.NP", "S", "NP");
+        assertRequired("S..NP", "S", "NP");
+        assertRequired("NP<:DT", "NP", "DT");
+        assertRequired("S<NP!<PP", "S", "NP");
+    }
+
+    @Test
+    public void testPathConstraint () {
+        assertRequired("S <+(VP) NN", "S", "NN");
+    }
+
+    @Test
+    public void testRequiredLabelsLeaveOutRegexes () {
+        List<String> labels = Arrays.asList(PatternLabels.getRequiredLabels("S < /^VB/ < NP").toArray(new String[0]));
+        assertEquals(Arrays.asList("S", "NP"), labels);
+    }
+}
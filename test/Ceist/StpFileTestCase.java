@@ -0,0 +1,114 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base for the tests of files saved beside a .stp file. Each test gets
+ * an empty folder to write its .stp files in.
+ */
+public abstract class StpFileTestCase {
+
+    static final String[] TREES = {
+        "(ROOT (S (NP (PRP He)) (VP (VBD walked) (NP (NN home))) (. .)))",
+        "(ROOT (S (NP (DT The) (NN dog)) (VP (VBD barked)) (. .)))",
+        "(ROOT (FRAG (NP (NNP Café) (NNP Noir))))"
+    };
+
+    protected File folder;
+
+    @Before
+    public void createFolder () throws IOException {
+        folder = File.createTempFile("ceist", "");
+
+        if (!folder.delete() || !folder.mkdir())
+            throw new IOException("Cannot make " + folder);
+    }
+
+    @After
+    public void deleteFolder () {
+        for (File file : folder.listFiles())
+            file.delete();
+
+        folder.delete();
+    }
+
+    /**
+     * Writes bracketed trees to a .stp file in the folder, one per line.
+     */
+    protected File writeStp (String name, String... trees) throws IOException {
+        StringBuilder text = new StringBuilder();
+
+        for (String tree : trees)
+            text.append(tree).append('\n');
+
+        File stpFile = new File(folder, name);
+        write(stpFile, text.toString().getBytes("UTF-8"));
+
+        return stpFile;
+    }
+
+    protected static List<Tree> parse (String... trees) {
+        List<Tree> parsed = new ArrayList<Tree>();
+
+        for (String tree : trees)
+            parsed.add(Tree.valueOf(tree));
+
+        return parsed;
+    }
+
+    /**
+     * Overwrites a file with junk of the same length, keeping its time, so
+     * a file stamped from it still looks current but it cannot be parsed.
+     */
+    protected static void scramble (File file) throws IOException {
+        long modified = file.lastModified();
+        byte[] junk = new byte[(int) file.length()];
+
+        Arrays.fill(junk, (byte) '#');
+        write(file, junk);
+
+        if (!file.setLastModified(modified))
+            throw new IOException("Cannot set the time of " + file);
+    }
+
+    private static void write (File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
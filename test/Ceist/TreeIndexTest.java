@@ -0,0 +1,86 @@
+/*
+    Ceist Question Generation (QG) System
+    Copyright (C) 2010  Brendan Wyse <bjwyse@gmail.com>
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package Ceist;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TreeIndexTest extends StpFileTestCase {
+
+    private static void assertIndex (TreeIndex index) {
+        assertEquals(3, index.getTreeCount());
+        assertArrayEquals(new int[] {0, 1}, index.getTrees("VBD"));
+        assertArrayEquals(new int[] {2}, index.getTrees("Café"));
+        assertArrayEquals(new int[0], index.getTrees("VBZ"));
+        assertArrayEquals(new int[] {0, 1}, index.getTrees(Arrays.asList("S", "/^N/")));
+    }
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+
+        assertIndex(TreeIndex.forFile(stpFile, parse(TREES)));
+        assertTrue(SideCarFile.forSource(stpFile, ".idx").isFile());
+
+        // The same number of other trees: a reused index still describes the old ones
+        List<Tree> others = parse(TREES[2], TREES[2], TREES[2]);
+
+        assertIndex(TreeIndex.forFile(stpFile, others));
+    }
+
+    @Test
+    public void testRebuiltWhenStpChanges () throws Exception {
+        File stpFile = writeStp("trees.stp", TREES);
+        TreeIndex.forFile(stpFile, parse(TREES));
+
+        writeStp("trees.stp", TREES[2]);
+        TreeIndex index = TreeIndex.forFile(stpFile, parse(TREES[2]));
+
+        assertEquals(1, index.getTreeCount());
+        assertArrayEquals(new int[0], index.getTrees("VBD"));
+    }
+
+    @Test
+    public void testAppend () {
+        TreeIndex index = new TreeIndex();
+        TreeIndex other = new TreeIndex();
+
+        for (Tree tree : parse(TREES))
+            other.addTree(tree);
+
+        index.addTree(Tree.valueOf(TREES[1]));
+        index.append(other);
+
+        assertEquals(4, index.getTreeCount());
+        assertArrayEquals(new int[] {0, 1, 2}, index.getTrees("VBD"));
+    }
+
+    @Test
+    public void testIntersect () {
+        assertArrayEquals(new int[] {2, 5}, TreeIndex.intersect(new int[] {1, 2, 5, 7}, new int[] {2, 3, 5}));
+        assertArrayEquals(new int[0], TreeIndex.intersect(new int[] {1}, new int[0]));
+    }
+}